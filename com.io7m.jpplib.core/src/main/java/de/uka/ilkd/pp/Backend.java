@@ -51,6 +51,11 @@ package de.uka.ilkd.pp;
  * exception class {@link NoExceptions} that may be used as parameter
  * if no checked exceptions are thrown by a Backend.
  *
+ * <P>If a tab width is set with {@link Layouter#setTabWidth(int)}, the
+ * text at the start of a line may begin with tab characters, each
+ * standing for that many columns.  They are part of the indentation,
+ * which is never measured by the backend.
+ *
  * <P>There is currently no provision to handle proportional fonts,
  * and there might never be.
  *
@@ -67,9 +72,54 @@ public interface Backend<Exc extends Exception> {
      * contains no newlines. */
     void print(String s) throws Exc;
 
+    /** Append the characters of <code>s</code> to the output.
+     * <code>s</code> contains no newlines.  The default implementation
+     * converts <code>s</code> to a String.
+     * @since 1.0.1 */
+    default void print(CharSequence s) throws Exc {
+	print(s.toString());
+    }
+
+    /** Append <code>len</code> characters of <code>buf</code>, starting
+     * at <code>off</code>, to the output.  They contain no newlines.
+     * The default implementation copies them to a String.
+     * @since 1.0.1 */
+    default void print(char[] buf, int off, int len) throws Exc {
+	print(new String(buf, off, len));
+    }
+
     /** Start a new line. */
     void newLine() throws Exc;
 
+    /** Start a new line and indent it by <code>indent</code> spaces.
+     * Backends that can write a line break together with its
+     * indentation in one operation should override this.  The default
+     * implementation calls {@link #newLine()} and prints the spaces,
+     * taking them from a cache of precomputed Strings.
+     * @since 1.0.1 */
+    default void newLine(int indent) throws Exc {
+	newLine();
+	while (indent > 0) {
+	    int n = Math.min(indent, Indentation.CACHED);
+	    print(Indentation.spaces(n));
+	    indent -= n;
+	}
+    }
+
+    /** Append <code>len</code> characters of <code>buf</code>, starting
+     * at <code>off</code>, to the output, and start a new line.  The last
+     * of the characters is a <code>'\n'</code>, which stands for the
+     * new line, and there are no other newlines.  The default
+     * implementation calls {@link #print(char[], int, int)} for the other
+     * characters, if any, and then {@link #newLine()}.
+     * @since 1.0.1 */
+    default void printLine(char[] buf, int off, int len) throws Exc {
+	if (len > 1) {
+	    print(buf, off, len - 1);
+	}
+	newLine();
+    }
+
     /** Closes this backend */
     void close() throws Exc;
 
@@ -85,4 +135,20 @@ public interface Backend<Exc extends Exception> {
     /** Returns the space required to print the String <code>s</code> */
     int measure(String s);
 
+    /** Returns the space required to print the characters of
+     * <code>s</code>.  The default implementation converts
+     * <code>s</code> to a String.
+     * @since 1.0.1 */
+    default int measure(CharSequence s) {
+	return measure(s.toString());
+    }
+
+    /** Returns the space required to print <code>len</code> characters of
+     * <code>buf</code>, starting at <code>off</code>.  The default
+     * implementation copies them to a String.
+     * @since 1.0.1 */
+    default int measure(char[] buf, int off, int len) {
+	return measure(new String(buf, off, len));
+    }
+
 }
@@ -0,0 +1,47 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** A factory for {@link Backend}s, used by {@link LayouterConfig} to
+ * create a fresh backend for every document.  For instance,
+ * <code>StringBackend::new</code> is a
+ * <code>BackendFactory&lt;NoExceptions&gt;</code>.
+ *
+ * @param <Exc> The type of exceptions that might be thrown by the
+ * created backends.
+ *
+ * @since 1.0.1
+ */
+public interface BackendFactory<Exc extends Exception> {
+	/** Create a new backend with the given maximum line width. 
+	 * @param lineWidth the available space per line
+	 * @return a new backend
+	 */
+	Backend<Exc> createBackend(int lineWidth);
+}
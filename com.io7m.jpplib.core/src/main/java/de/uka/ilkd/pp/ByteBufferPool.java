@@ -0,0 +1,125 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.nio.ByteBuffer;
+
+/** A thread-safe pool of direct {@link ByteBuffer}s of a fixed size, as
+ * used by {@link ChannelBackend}.  Allocating direct buffers is
+ * expensive, and they are only freed by the garbage collector, so a
+ * service writing many documents should share one pool between its
+ * backends.  A buffer is taken from the pool with {@link #acquire()} and
+ * given back with {@link #release(ByteBuffer)} once its contents have
+ * been written.
+ *
+ * <p>The pool only holds a lock for the duration of taking or returning
+ * a buffer.  A buffer must not be used any more after it was released.
+ *
+ * @since 1.0.1
+ */
+public final class ByteBufferPool {
+
+	/** The default size of the buffers, 64 KiB */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final int bufferSize;
+
+	/** The idle buffers, used as a stack.  Guarded by <code>this</code>. */
+	private final ByteBuffer[] idle;
+
+	/** The number of idle buffers.  Guarded by <code>this</code>. */
+	private int idleCount = 0;
+
+	/** Create a pool of buffers of {@link #DEFAULT_BUFFER_SIZE} bytes,
+	 * keeping at most 64 idle buffers. */
+	public ByteBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, 64);
+	}
+
+	/** Create a pool.
+	 *
+	 * @param bufferSize the size of the buffers in bytes
+	 * @param maxIdle the maximum number of idle buffers kept for reuse
+	 */
+	public ByteBufferPool(int bufferSize, int maxIdle) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle must be non-negative");
+		}
+		this.bufferSize = bufferSize;
+		this.idle = new ByteBuffer[maxIdle];
+	}
+
+	/** @return the size of the buffers in bytes */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/** Get an empty direct buffer, from the pool if possible.
+	 *
+	 * @return a cleared buffer of {@link #getBufferSize()} bytes
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer b = null;
+		synchronized (this) {
+			if (idleCount > 0) {
+				b = idle[--idleCount];
+				idle[idleCount] = null;
+			}
+		}
+		if (b == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		b.clear();
+		return b;
+	}
+
+	/** Give a buffer back to the pool.  If the pool is full, or the
+	 * buffer was not obtained from a pool of this size, it is dropped.
+	 *
+	 * @param b a buffer obtained from {@link #acquire()}
+	 */
+	public void release(ByteBuffer b) {
+		if (b.capacity() != bufferSize || !b.isDirect()) {
+			return;
+		}
+		synchronized (this) {
+			if (idleCount < idle.length) {
+				idle[idleCount++] = b;
+			}
+		}
+	}
+
+	/** @return the number of idle buffers currently kept for reuse */
+	public synchronized int idleCount() {
+		return idleCount;
+	}
+}
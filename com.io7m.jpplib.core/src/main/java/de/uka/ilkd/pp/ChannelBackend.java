@@ -0,0 +1,170 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+package de.uka.ilkd.pp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/** A {@link Utf8StreamBackend} which writes its output to a channel,
+ * e.g. a socket or a pipe, using direct buffers from a
+ * {@link ByteBufferPool}.  The output is encoded straight into the
+ * direct buffers, so the channel can write them without copying them
+ * to native memory first.  Full buffers are collected, and written with
+ * a single gathering {@link GatheringByteChannel#write(ByteBuffer[])}
+ * once a given number of them is full, and on {@link #flush()} and
+ * {@link #close()}.  Buffers go back to the pool as soon as they are
+ * written, or when writing them fails.
+ *
+ * <p>The channel must be in blocking mode.
+ *
+ * @since 1.0.1
+ */
+public class ChannelBackend extends Utf8StreamBackend {
+
+	/** The default number of full buffers written at once */
+	public static final int DEFAULT_GATHER = 16;
+
+	private final GatheringByteChannel channel;
+	private final ByteBufferPool pool;
+
+	/** The full buffers, flipped for writing */
+	private final ByteBuffer[] full;
+
+	/** The number of buffers in <code>full</code> */
+	private int fullCount = 0;
+
+	/** Create a new ChannelBackend writing up to
+	 * {@link #DEFAULT_GATHER} buffers at once.
+	 * @param channel the channel to write to
+	 * @param lineWidth the maximum line width
+	 * @param pool the pool to take the buffers from
+	 */
+	public ChannelBackend(GatheringByteChannel channel, int lineWidth,
+			ByteBufferPool pool) {
+		this(channel, lineWidth, pool, DEFAULT_GATHER);
+	}
+
+	/** Create a new ChannelBackend.
+	 * @param channel the channel to write to
+	 * @param lineWidth the maximum line width
+	 * @param pool the pool to take the buffers from, with buffers of at
+	 *        least 4 bytes
+	 * @param gather the number of full buffers written at once
+	 * @throws IllegalArgumentException if <code>gather</code> is not
+	 *         positive, or the buffers of the pool are too small
+	 */
+	public ChannelBackend(GatheringByteChannel channel, int lineWidth,
+			ByteBufferPool pool, int gather) {
+		super(lineWidth);
+		if (gather <= 0) {
+			throw new IllegalArgumentException("gather must be positive");
+		}
+		if (pool.getBufferSize() < 4) {
+			throw new IllegalArgumentException("buffers too small");
+		}
+		this.channel = channel;
+		this.pool = pool;
+		this.full = new ByteBuffer[gather];
+	}
+
+	/** Add the full buffer to the ones to be written, writing them if
+	 * there are enough, and take a new one from the pool. */
+	@Override
+	ByteBuffer next(ByteBuffer b) throws IOException {
+		if (b != null) {
+			buf = null;
+			queue(b);
+		}
+		return pool.acquire();
+	}
+
+	/** Writes the buffered output to the channel */
+	@Override
+	public void flush() throws IOException {
+		if (buf != null && buf.position() > 0) {
+			ByteBuffer b = buf;
+			buf = null;
+			queue(b);
+		}
+		writeFull();
+	}
+
+	/** Closes this backend, writing all buffered output to the channel
+	 * before closing it.  All buffers go back to the pool, even if
+	 * writing fails. */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (buf != null) {
+				pool.release(buf);
+				buf = null;
+			}
+			releaseFull();
+			channel.close();
+		}
+	}
+
+	/** Add a buffer to the full ones, writing them if there are
+	 * enough. */
+	private void queue(ByteBuffer b) throws IOException {
+		b.flip();
+		full[fullCount++] = b;
+		if (fullCount == full.length) {
+			writeFull();
+		}
+	}
+
+	/** Write the full buffers to the channel, and give them back to
+	 * the pool, also if writing fails. */
+	private void writeFull() throws IOException {
+		try {
+			int first = 0;
+			while (first < fullCount) {
+				channel.write(full, first, fullCount - first);
+				while (first < fullCount && !full[first].hasRemaining()) {
+					first++;
+				}
+			}
+		} finally {
+			releaseFull();
+		}
+	}
+
+	/** Give the full buffers back to the pool, whether they are written
+	 * or not. */
+	private void releaseFull() {
+		for (int i = 0; i < fullCount; i++) {
+			pool.release(full[i]);
+			full[i] = null;
+		}
+		fullCount = 0;
+	}
+}
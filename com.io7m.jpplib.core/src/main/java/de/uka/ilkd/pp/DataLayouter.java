@@ -31,6 +31,7 @@ package de.uka.ilkd.pp;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /** An extension of {@link de.uka.ilkd.pp.Layouter} to print
@@ -68,6 +69,21 @@ public class DataLayouter<Exc extends Exception> extends Layouter<Exc> {
 	public DataLayouter(Backend<Exc> back,int indentation) {
 		super(back, indentation);
 	}
+
+	/**
+	 * Construts a newly allocated DataLayouter which will send output to
+	 * all of the given {@link Backend}s and has the given default
+	 * indentation.
+	 *
+	 * @param backs the Backends
+	 * @param indentation the default indentation
+	 * @see Layouter#Layouter(List, int)
+	 * @since 1.0.1
+	 */
+	public DataLayouter(List<? extends Backend<Exc>> backs,
+			int indentation) {
+		super(backs, indentation);
+	}
 	
 	// STATIC FACTORY METHODS ----------------------------------------
 
@@ -237,7 +253,7 @@ public class DataLayouter<Exc extends Exception> extends Layouter<Exc> {
 	@Override
 	public DataLayouter<Exc> begin(BreakConsistency consistent,
 								    IndentationBase fromPos, 
-								    int indent) {
+								    int indent) throws Exc {
 		super.begin(consistent, fromPos, indent);
 		return this;
 	}
@@ -246,7 +262,7 @@ public class DataLayouter<Exc extends Exception> extends Layouter<Exc> {
 	 * @deprecated use {@link #begin(de.uka.ilkd.pp.Layouter.BreakConsistency, de.uka.ilkd.pp.Layouter.IndentationBase, int)}
 	 */
 	@Override
-	public DataLayouter<Exc> begin(boolean consistent, int indent) {
+	public DataLayouter<Exc> begin(boolean consistent, int indent) throws Exc {
 		return begin(consistent, indent);
 	}
 	
@@ -254,55 +270,55 @@ public class DataLayouter<Exc extends Exception> extends Layouter<Exc> {
 	 * @deprecated use {@link #begin(de.uka.ilkd.pp.Layouter.BreakConsistency, de.uka.ilkd.pp.Layouter.IndentationBase, int)}
 	 */
 	@Override
-	public DataLayouter<Exc> begin(boolean consistent) {
+	public DataLayouter<Exc> begin(boolean consistent) throws Exc {
 		super.begin(consistent);
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginC() {
+	public DataLayouter<Exc> beginC() throws Exc {
 		super.beginC();
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginC(int indent) {
+	public DataLayouter<Exc> beginC(int indent) throws Exc {
 		super.beginC(indent);
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginI() {
+	public DataLayouter<Exc> beginI() throws Exc {
 		super.beginI();
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginI(int indent) {
+	public DataLayouter<Exc> beginI(int indent) throws Exc {
 		super.beginI(indent);
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginCInd() {
+	public DataLayouter<Exc> beginCInd() throws Exc {
 		super.beginCInd();
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginCInd(int indent) {
+	public DataLayouter<Exc> beginCInd(int indent) throws Exc {
 		super.beginCInd(indent);
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginIInd() {
+	public DataLayouter<Exc> beginIInd() throws Exc {
 		super.beginIInd();
 		return this;
 	}
 
 	@Override
-	public DataLayouter<Exc> beginIInd(int indent) {
+	public DataLayouter<Exc> beginIInd(int indent) throws Exc {
 		super.beginIInd(indent);
 		return this;
 	}
@@ -372,5 +388,30 @@ public class DataLayouter<Exc extends Exception> extends Layouter<Exc> {
 		super.print(s);
 		return this;
 	}
+
+	@Override
+	public DataLayouter<Exc> print(CharSequence s) throws Exc {
+		super.print(s);
+		return this;
+	}
+
+	@Override
+	public DataLayouter<Exc> print(char[] buf, int off, int len) throws Exc {
+		super.print(buf, off, len);
+		return this;
+	}
+
+	@Override
+	public DataLayouter<Exc> printAll(CharSequence... parts) throws Exc {
+		super.printAll(parts);
+		return this;
+	}
+
+	@Override
+	public DataLayouter<Exc> printSeparated(Iterable<?> items,
+			CharSequence sep, int brkWidth) throws Exc {
+		super.printSeparated(items, sep, brkWidth);
+		return this;
+	}
 	
 }
@@ -0,0 +1,106 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** A stack of token sequence numbers, as used by {@link Layouter} for the
+ * <code>OpenBlockToken</code>s and <code>BreakToken</code>s in its
+ * {@link TokenQueue} which are waiting for their size to be determined.
+ * Apart from the usual stack operations, elements may also be removed
+ * from the bottom of the stack.
+ */
+final class DelimiterStack {
+
+	private int[] elems = new int[16];
+
+	/** Index of the bottom element */
+	private int bottom = 0;
+
+	/** Index one above the top element */
+	private int top = 0;
+
+	/** Return whether the stack is empty. */
+	boolean isEmpty() {
+		return bottom == top;
+	}
+
+	/** Remove all elements from the stack. */
+	void clear() {
+		bottom = 0;
+		top = 0;
+	}
+
+	/** Push a sequence number onto the stack. */
+	void push(int t) {
+		if (top == elems.length) {
+			if (bottom > 0) {
+				System.arraycopy(elems, bottom, elems, 0, top - bottom);
+				top -= bottom;
+				bottom = 0;
+			}
+			if (top == elems.length) {
+				int[] n = new int[2 * elems.length];
+				System.arraycopy(elems, 0, n, 0, top);
+				elems = n;
+			}
+		}
+		elems[top++] = t;
+	}
+
+	/** Pop the topmost element from the stack. */
+	int pop() {
+		if (isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		return elems[--top];
+	}
+
+	/** Remove and return the element at the <em>bottom</em> of the stack. */
+	int popBottom() {
+		if (isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		return elems[bottom++];
+	}
+
+	/** Return the bottom of the stack, without removing it. */
+	int bottom() {
+		if (isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		return elems[bottom];
+	}
+
+	/** Return the top of the stack, without popping it. */
+	int top() {
+		if (isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		return elems[top - 1];
+	}
+}
@@ -0,0 +1,284 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/** A {@link TokenQueue} kept mostly outside of the Java heap, in direct
+ * buffers.  The records of the tokens are stored in one buffer, and the
+ * text of the {@link #STRING} tokens in a second one, which is used as a
+ * ring buffer of characters just like the records.  Only the objects
+ * passed with {@link #MARK} tokens are kept on the heap.  The heap
+ * space used by the queue thus does not depend on the number of tokens
+ * in it, and the garbage collector does not need to trace them.  The
+ * price is that the text of a STRING token is copied into a new
+ * <code>String</code> whenever it is retrieved.
+ *
+ * <p>For STRING tokens, the <code>offset</code> field of the record holds
+ * the position of the text in the character buffer, and the
+ * <code>begin</code> field its length.  The parts of a {@link #PARTS}
+ * token are stored one after the other, and it becomes a STRING token.
+ * A record holds the
+ * <code>kind</code>, <code>width</code> and <code>offset</code> as ints,
+ * and after four bytes of padding, which keep the rest aligned, the
+ * <code>begin</code> and <code>end</code> as longs.  For MARK tokens, the
+ * <code>offset</code> field holds a sequence number in the ring buffer of
+ * marks.
+ */
+final class DirectTokenQueue extends TokenQueue {
+
+	/** The number of bytes in a record */
+	private static final int RECORD = 32;
+
+	private static final int KIND = 0;
+	private static final int WIDTH = 4;
+	private static final int OFFSET = 8;
+	private static final int BEGIN = 16;
+	private static final int END = 24;
+
+	/** The capacity minus one.  The capacity is always a power of two. */
+	private int mask;
+
+	/** The token records */
+	private ByteBuffer records;
+
+	/** The text of the STRING tokens */
+	private CharBuffer chars;
+
+	/** The size of <code>chars</code> minus one, a power of two minus
+	 * one */
+	private int charMask;
+
+	/** The position in <code>chars</code> of the text of the first STRING
+	 * token */
+	private int charHead = 0;
+
+	/** The position in <code>chars</code> for the next text */
+	private int charTail = 0;
+
+	/** The objects of the MARK tokens */
+	private Object[] marks = new Object[16];
+
+	private int markHead = 0;
+
+	private int markTail = 0;
+
+	/** Create an empty queue.
+	 * @param capacity the initial capacity, rounded up to a power of two
+	 */
+	DirectTokenQueue(int capacity) {
+		int c = capacity(capacity);
+		records = allocate(c * RECORD);
+		mask = c - 1;
+		chars = allocate(c * 16 * 2).asCharBuffer();
+		charMask = c * 16 - 1;
+	}
+
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	int add(int k, int w, int off, long b, Object o) {
+		if (tail - head > mask) {
+			grow();
+		}
+		int t = tail++;
+		if (k == STRING) {
+			String s = (String) o;
+			off = storeText(s);
+			b = s.length();
+		} else if (k == PARTS) {
+			off = charTail;
+			b = 0;
+			for (String s : (String[]) o) {
+				storeText(s);
+				b += s.length();
+			}
+			k = STRING;
+		} else if (k == MARK) {
+			off = storeMark(o);
+		}
+		int i = (t & mask) * RECORD;
+		records.putInt(i + KIND, k);
+		records.putInt(i + WIDTH, w);
+		records.putInt(i + OFFSET, off);
+		records.putLong(i + BEGIN, b);
+		records.putLong(i + END, -1);
+		return t;
+	}
+
+	int add(int w, char[] buf, int off, int len) {
+		if (tail - head > mask) {
+			grow();
+		}
+		int t = tail++;
+		int p = reserveText(len);
+		for (int j = 0; j < len; j++) {
+			chars.put((p + j) & charMask, buf[off + j]);
+		}
+		int i = (t & mask) * RECORD;
+		records.putInt(i + KIND, STRING);
+		records.putInt(i + WIDTH, w);
+		records.putInt(i + OFFSET, p);
+		records.putLong(i + BEGIN, len);
+		records.putLong(i + END, -1);
+		return t;
+	}
+
+	private int storeText(String s) {
+		int n = s.length();
+		int p = reserveText(n);
+		for (int j = 0; j < n; j++) {
+			chars.put((p + j) & charMask, s.charAt(j));
+		}
+		return p;
+	}
+
+	/** Make room for <code>n</code> more characters of text, and return
+	 * their position. */
+	private int reserveText(int n) {
+		if (charTail - charHead + n > charMask + 1) {
+			growChars(Math.max(2 * (charMask + 1), charTail - charHead + n));
+		}
+		int p = charTail;
+		charTail += n;
+		return p;
+	}
+
+	private int storeMark(Object o) {
+		if (markTail - markHead == marks.length) {
+			Object[] n = new Object[2 * marks.length];
+			for (int m = markHead; m != markTail; m++) {
+				n[m & (n.length - 1)] = marks[m & (marks.length - 1)];
+			}
+			marks = n;
+		}
+		marks[markTail & (marks.length - 1)] = o;
+		return markTail++;
+	}
+
+	void removeFirst() {
+		int i = (head & mask) * RECORD;
+		switch (records.getInt(i + KIND) & KIND_MASK) {
+		case STRING:
+			charHead += (int) records.getLong(i + BEGIN);
+			break;
+		case MARK:
+			marks[markHead & (marks.length - 1)] = null;
+			markHead++;
+			break;
+		default:
+			break;
+		}
+		head++;
+	}
+
+	void clear() {
+		super.clear();
+		charHead = 0;
+		charTail = 0;
+		markHead = 0;
+		markTail = 0;
+	}
+
+	int flags(int t) {
+		return records.getInt((t & mask) * RECORD + KIND);
+	}
+
+	int width(int t) {
+		return records.getInt((t & mask) * RECORD + WIDTH);
+	}
+
+	int offset(int t) {
+		return records.getInt((t & mask) * RECORD + OFFSET);
+	}
+
+	long begin(int t) {
+		return records.getLong((t & mask) * RECORD + BEGIN);
+	}
+
+	long end(int t) {
+		return records.getLong((t & mask) * RECORD + END);
+	}
+
+	Object object(int t) {
+		int i = (t & mask) * RECORD;
+		switch (records.getInt(i + KIND) & KIND_MASK) {
+		case STRING:
+			int p = records.getInt(i + OFFSET);
+			char[] s = new char[(int) records.getLong(i + BEGIN)];
+			for (int j = 0; j < s.length; j++) {
+				s[j] = chars.get((p + j) & charMask);
+			}
+			return new String(s);
+		case MARK:
+			return marks[records.getInt(i + OFFSET) & (marks.length - 1)];
+		default:
+			return null;
+		}
+	}
+
+	void setEnd(int t, long e) {
+		records.putLong((t & mask) * RECORD + END, e);
+	}
+
+	/** Double the capacity, keeping every token at the slot its
+	 * sequence number maps to. */
+	private void grow() {
+		ByteBuffer o = records;
+		int oMask = mask;
+
+		records = allocate(2 * (oMask + 1) * RECORD);
+		mask = 2 * oMask + 1;
+
+		for (int t = head; t != tail; t++) {
+			int from = (t & oMask) * RECORD;
+			int to = (t & mask) * RECORD;
+			for (int f = 0; f < RECORD; f += 8) {
+				records.putLong(to + f, o.getLong(from + f));
+			}
+		}
+	}
+
+	/** Make room for at least <code>n</code> characters of text. */
+	private void growChars(int n) {
+		CharBuffer o = chars;
+		int oMask = charMask;
+		int c = capacity(n);
+
+		chars = allocate(c * 2).asCharBuffer();
+		charMask = c - 1;
+
+		for (int p = charHead; p != charTail; p++) {
+			chars.put(p & charMask, o.get(p & oMask));
+		}
+	}
+}
@@ -0,0 +1,664 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import de.uka.ilkd.pp.Layouter.BreakConsistency;
+import de.uka.ilkd.pp.Layouter.IndentationBase;
+
+/**
+ * An immutable document, as an alternative to streaming material through
+ * a {@link Layouter}.  A document is a tree built from text, breaks,
+ * indentations, marks and blocks, which have the same meaning as the
+ * corresponding {@link Layouter} calls: a <em>block</em> corresponds to a
+ * <code>begin</code> call, its children, and the matching
+ * <code>end</code> call, and carries the block's consistency and
+ * indentation (the amount by which it nests its contents).
+ *
+ * <p>Every node computes its <em>flat width</em>, i.e. the space it needs
+ * if printed without line breaks, once, when it is constructed.  A
+ * {@link Layouter} has to buffer material until it can determine these
+ * sizes; when a whole document is available in memory anyway, rendering
+ * it with {@link #render(Backend)} needs no buffering at all and
+ * produces the same output.  A document may be rendered any number of
+ * times, and since it is immutable, it may be shared between threads
+ * without re-measuring.
+ *
+ * <p>Documents are most easily built with a {@link DocBuilder}, which
+ * offers the API of a {@link DataLayouter}, but may also be assembled
+ * with the static factory methods of this class.  Widths of text are
+ * given by the caller; they must correspond to what the
+ * {@link Backend#measure(String)} method of the backends the document is
+ * rendered to would return.
+ *
+ * <p>Large documents may be rendered in parallel with
+ * {@link #render(Backend, ForkJoinPool)}.
+ *
+ * @since 1.0.1
+ */
+public abstract class Doc {
+
+	/** The width of a break which never fits on a line. Flat widths are
+	 * added up saturating at this value. */
+	public static final int INFINITE_WIDTH = Integer.MAX_VALUE;
+
+	/** The minimal number of breaks in a block for
+	 * {@link #render(Backend, ForkJoinPool)} to lay out its parts in
+	 * parallel. */
+	public static final int PARALLEL_THRESHOLD = 256;
+
+	/** The empty document. */
+	public static final Doc EMPTY = new Concat(new Doc[0]);
+
+	/** The space needed to print this document without line breaks. */
+	private final int flatWidth;
+
+	Doc(int flatWidth) {
+		this.flatWidth = flatWidth;
+	}
+
+	/**
+	 * Returns the space needed to print this document without line
+	 * breaks, or {@link #INFINITE_WIDTH} if it contains a forced line
+	 * break or is too large.
+	 * 
+	 * @return the flat width
+	 */
+	public final int flatWidth() {
+		return flatWidth;
+	}
+
+	// FACTORY METHODS ----------------------------------------------
+
+	/**
+	 * Text material, one column per character.
+	 * 
+	 * @param s the text, without newline characters
+	 * @return a text document
+	 */
+	public static Doc text(String s) {
+		return new Text(s, s.length());
+	}
+
+	/**
+	 * Text material taking up <code>width</code> columns.
+	 * 
+	 * @param s the text, without newline characters
+	 * @param width the space required to print <code>s</code>
+	 * @return a text document
+	 */
+	public static Doc text(String s, int width) {
+		return new Text(s, width);
+	}
+
+	/**
+	 * A break, like {@link Layouter#brk(int, int)}.
+	 * 
+	 * @param width space to insert if not broken
+	 * @param offset offset relative to current indentation level
+	 * @return a break
+	 */
+	public static Doc brk(int width, int offset) {
+		return new Break(width, offset);
+	}
+
+	/**
+	 * A break which is always broken, like {@link Layouter#nl()}.
+	 * 
+	 * @return a forced break
+	 */
+	public static Doc nl() {
+		return new Break(INFINITE_WIDTH, 0);
+	}
+
+	/**
+	 * An indentation, like {@link Layouter#ind(int, int)}.
+	 * 
+	 * @param width space to insert if not broken
+	 * @param offset offset relative to current indentation level
+	 * @return an indentation
+	 */
+	public static Doc ind(int width, int offset) {
+		return new Indentation(width, offset);
+	}
+
+	/**
+	 * A mark, like {@link Layouter#mark(Object)}.
+	 * 
+	 * @param o an object to be passed through to the backend
+	 * @return a mark
+	 */
+	public static Doc mark(Object o) {
+		return new Mark(o);
+	}
+
+	/**
+	 * A block, like a call to
+	 * {@link Layouter#begin(BreakConsistency, IndentationBase, int)},
+	 * followed by the contents and a call to {@link Layouter#end()}.
+	 * 
+	 * @param cons the consistency of the block
+	 * @param indBase what the indentation is relative to
+	 * @param indent increment to indentation level
+	 * @param contents the contents of the block
+	 * @return a block
+	 */
+	public static Doc block(BreakConsistency cons, IndentationBase indBase,
+			int indent, Doc... contents) {
+		return new Block(cons, indBase, indent, flatten(contents));
+	}
+
+	/**
+	 * A consistent block indented relative to the current position.
+	 * 
+	 * @param indent increment to indentation level
+	 * @param contents the contents of the block
+	 * @return a block
+	 */
+	public static Doc blockC(int indent, Doc... contents) {
+		return block(BreakConsistency.CONSISTENT, IndentationBase.FROM_POS,
+				indent, contents);
+	}
+
+	/**
+	 * An inconsistent block indented relative to the current position.
+	 * 
+	 * @param indent increment to indentation level
+	 * @param contents the contents of the block
+	 * @return a block
+	 */
+	public static Doc blockI(int indent, Doc... contents) {
+		return block(BreakConsistency.INCONSISTENT, IndentationBase.FROM_POS,
+				indent, contents);
+	}
+
+	/**
+	 * A sequence of documents. Sequences are transparent: if a sequence
+	 * is part of a block, its elements become contents of the block.
+	 * 
+	 * @param parts the parts of the sequence
+	 * @return a document
+	 */
+	public static Doc concat(Doc... parts) {
+		return new Concat(flatten(parts));
+	}
+
+	// RENDERING ----------------------------------------------------
+
+	/**
+	 * Lay out this document and send the output to <code>back</code>. The
+	 * backend is neither flushed nor closed. The output is the same as if
+	 * the corresponding calls were made to a {@link Layouter} writing to
+	 * <code>back</code>.
+	 * 
+	 * @param back the backend
+	 * @param <Exc> The type of exceptions that might be thrown by the backend.
+	 */
+	public <Exc extends Exception> void render(Backend<Exc> back) throws Exc {
+		Printer<Exc> out = new Printer<Exc>(back);
+		print(out);
+		out.flushLine();
+	}
+
+	/**
+	 * Lay out this document using the threads of <code>pool</code>, and
+	 * send the output to <code>back</code>. The output is the same as
+	 * with {@link #render(Backend)}, but it may be divided differently
+	 * among the calls made to the backend.
+	 * 
+	 * <p>Once a consistent block is known to be broken, every break in it
+	 * starts a new line at an indentation that is known in advance. The
+	 * parts between the breaks of such a block are therefore laid out
+	 * independently, on the threads of <code>pool</code>, each into its
+	 * own buffer. The buffers are then replayed, in order, to
+	 * <code>back</code> on the calling thread. Only blocks with at least
+	 * {@link #PARALLEL_THRESHOLD} breaks are split, and only if the pool
+	 * has more than one thread; for documents like long
+	 * lists printed by a {@link DataLayouter}, the work thus scales with
+	 * the number of threads. The methods of <code>back</code> are only
+	 * called from the calling thread.
+	 * 
+	 * @param back the backend
+	 * @param pool the pool to lay out parts of the document in
+	 * @param <Exc> The type of exceptions that might be thrown by the backend.
+	 */
+	public <Exc extends Exception> void render(Backend<Exc> back,
+			ForkJoinPool pool) throws Exc {
+		Printer<Exc> out = new Printer<Exc>(back);
+		printParallel(out, pool);
+		out.flushLine();
+	}
+
+	/**
+	 * Send this document to a Layouter, e.g. to embed it in some streamed
+	 * material.
+	 * 
+	 * @param l the Layouter
+	 * @param <Exc> The type of exceptions that might be thrown by the backend.
+	 */
+	public abstract <Exc extends Exception> void render(Layouter<Exc> l)
+			throws Exc;
+
+	/** Lay out this document using <code>out</code>. */
+	abstract <Exc extends Exception> void print(Printer<Exc> out) throws Exc;
+
+	/** Lay out this document using <code>out</code>, splitting large
+	 * broken blocks into parts laid out in <code>pool</code>. */
+	<Exc extends Exception> void printParallel(Printer<Exc> out,
+			ForkJoinPool pool) throws Exc {
+		print(out);
+	}
+
+	/** Whether this is a break.  Breaks are printed by the enclosing
+	 * block, which knows their following size. */
+	boolean isBreak() {
+		return false;
+	}
+
+	/** Add two widths, saturating at {@link #INFINITE_WIDTH}. */
+	static int add(int a, int b) {
+		long r = (long) a + b;
+		return r > INFINITE_WIDTH ? INFINITE_WIDTH : (int) r;
+	}
+
+	/** Splice the parts of sequences into the surrounding list. */
+	private static Doc[] flatten(Doc[] parts) {
+		boolean nested = false;
+		for (Doc d : parts) {
+			if (d instanceof Concat) {
+				nested = true;
+				break;
+			}
+		}
+		if (!nested) {
+			return parts.clone();
+		}
+		List<Doc> result = new ArrayList<Doc>(parts.length);
+		for (Doc d : parts) {
+			if (d instanceof Concat) {
+				for (Doc e : ((Concat) d).parts) {
+					result.add(e);
+				}
+			} else {
+				result.add(d);
+			}
+		}
+		return result.toArray(new Doc[result.size()]);
+	}
+
+	// NODE CLASSES -------------------------------------------------
+
+	/** Text material. */
+	static final class Text extends Doc {
+		final String s;
+
+		Text(String s, int width) {
+			super(width);
+			this.s = s;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			out.print(s, flatWidth());
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			l.print(s);
+		}
+	}
+
+	/** A break. */
+	static final class Break extends Doc {
+		final int offset;
+
+		Break(int width, int offset) {
+			super(width);
+			this.offset = offset;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			/* only reached for breaks outside any block */
+			throw new UnbalancedBlocksException();
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			if (flatWidth() == INFINITE_WIDTH) {
+				l.nl();
+			} else {
+				l.brk(flatWidth(), offset);
+			}
+		}
+
+		boolean isBreak() {
+			return true;
+		}
+	}
+
+	/** An indentation. */
+	static final class Indentation extends Doc {
+		final int offset;
+
+		Indentation(int width, int offset) {
+			super(width);
+			this.offset = offset;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			out.indent(flatWidth(), offset);
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			l.ind(flatWidth(), offset);
+		}
+	}
+
+	/** A mark. */
+	static final class Mark extends Doc {
+		final Object o;
+
+		Mark(Object o) {
+			super(0);
+			this.o = o;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			out.mark(o);
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			l.mark(o);
+		}
+	}
+
+	/** A sequence of documents outside of any block. */
+	static final class Concat extends Doc {
+		final Doc[] parts;
+
+		Concat(Doc[] parts) {
+			super(sum(parts));
+			this.parts = parts;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			for (Doc d : parts) {
+				d.print(out);
+			}
+		}
+
+		<Exc extends Exception> void printParallel(Printer<Exc> out,
+				ForkJoinPool pool) throws Exc {
+			for (Doc d : parts) {
+				d.printParallel(out, pool);
+			}
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			for (Doc d : parts) {
+				d.render(l);
+			}
+		}
+	}
+
+	/** A block. */
+	static final class Block extends Doc {
+		final BreakConsistency cons;
+		final IndentationBase indBase;
+		final int indent;
+		final Doc[] contents;
+
+		/**
+		 * For each break in <code>contents</code>, the space needed by the
+		 * material up to the next break in <code>contents</code> or the end
+		 * of the block, including the break itself. Zero for other elements.
+		 */
+		final int[] followingSizes;
+
+		/** The number of breaks in <code>contents</code> */
+		final int breaks;
+
+		Block(BreakConsistency cons, IndentationBase indBase, int indent,
+				Doc[] contents) {
+			super(sum(contents));
+			this.cons = cons;
+			this.indBase = indBase;
+			this.indent = indent;
+			this.contents = contents;
+			this.followingSizes = new int[contents.length];
+
+			int following = 0;
+			int n = 0;
+			for (int i = contents.length - 1; i >= 0; i--) {
+				following = add(following, contents[i].flatWidth());
+				if (contents[i].isBreak()) {
+					followingSizes[i] = following;
+					following = 0;
+					n++;
+				}
+			}
+			this.breaks = n;
+		}
+
+		<Exc extends Exception> void print(Printer<Exc> out) throws Exc {
+			out.openBlock(cons, indBase, indent, flatWidth());
+			printContents(out, 0, contents.length);
+			out.closeBlock();
+		}
+
+		/** Lay out <code>contents[from]</code> to
+		 * <code>contents[to-1]</code>. */
+		<Exc extends Exception> void printContents(Printer<Exc> out,
+				int from, int to) throws Exc {
+			for (int i = from; i < to; i++) {
+				Doc d = contents[i];
+				if (d.isBreak()) {
+					out.printBreak(d.flatWidth(), ((Break) d).offset,
+							followingSizes[i]);
+				} else {
+					d.print(out);
+				}
+			}
+		}
+
+		<Exc extends Exception> void printParallel(Printer<Exc> out,
+				ForkJoinPool pool) throws Exc {
+			boolean split = breaks >= PARALLEL_THRESHOLD
+					&& pool.getParallelism() > 1
+					&& cons == BreakConsistency.CONSISTENT
+					&& flatWidth() > out.space();
+			out.openBlock(cons, indBase, indent, flatWidth());
+			if (!split) {
+				for (int i = 0; i < contents.length; i++) {
+					Doc d = contents[i];
+					if (d.isBreak()) {
+						out.printBreak(d.flatWidth(), ((Break) d).offset,
+								followingSizes[i]);
+					} else {
+						d.printParallel(out, pool);
+					}
+				}
+			} else {
+				printSplit(out, pool);
+			}
+			out.closeBlock();
+		}
+
+		/** Lay out the contents of this block, which is broken, by
+		 * splitting them into chunks which begin with a break. */
+		private <Exc extends Exception> void printSplit(Printer<Exc> out,
+				ForkJoinPool pool) throws Exc {
+			int chunks = Math.min(breaks, 4 * pool.getParallelism());
+			int perChunk = (breaks + chunks - 1) / chunks;
+			int indentation = out.topIndentation();
+			int lineWidth = out.lineWidth();
+
+			List<ForkJoinTask<Chunk>> tasks =
+				new ArrayList<ForkJoinTask<Chunk>>(chunks);
+			int first = -1;
+			int start = -1;
+			int seen = 0;
+			for (int i = 0; i < contents.length; i++) {
+				if (contents[i].isBreak()) {
+					if (seen % perChunk == 0) {
+						if (start < 0) {
+							first = i;
+						} else {
+							tasks.add(pool.submit(
+									new Chunk(this, start, i, indentation, lineWidth)));
+						}
+						start = i;
+					}
+					seen++;
+				}
+			}
+			tasks.add(pool.submit(
+					new Chunk(this, start, contents.length, indentation,
+							lineWidth)));
+
+			/* the material before the first break, on this thread */
+			for (int i = 0; i < first; i++) {
+				contents[i].printParallel(out, pool);
+			}
+
+			out.flushLine();
+			for (ForkJoinTask<Chunk> t : tasks) {
+				Chunk c = t.join();
+				c.replay(out.backend());
+				out.setPosition(c.endPos);
+			}
+		}
+
+		public <Exc extends Exception> void render(Layouter<Exc> l)
+				throws Exc {
+			l.begin(cons, indBase, indent);
+			for (Doc d : contents) {
+				d.render(l);
+			}
+			l.end();
+		}
+	}
+
+	/** A part of a broken consistent block, laid out into a buffer. The
+	 * part starts with a break, so its layout does not depend on what
+	 * comes before it. The calls to the backend are recorded as
+	 * <code>String</code>s for {@link Backend#print(String)},
+	 * {@link #NEWLINE} for {@link Backend#newLine()}, and
+	 * <code>Object[]</code>s holding the object passed to
+	 * {@link Backend#mark(Object)}. */
+	static final class Chunk implements Backend<NoExceptions>,
+			Callable<Chunk> {
+		private static final Object NEWLINE = new Object();
+
+		private final Block block;
+		private final int from;
+		private final int to;
+		private final int indentation;
+		private final int lineWidth;
+		private final List<Object> ops = new ArrayList<Object>();
+
+		/** The position in the line at the end of the chunk */
+		int endPos;
+
+		Chunk(Block block, int from, int to, int indentation,
+				int lineWidth) {
+			this.block = block;
+			this.from = from;
+			this.to = to;
+			this.indentation = indentation;
+			this.lineWidth = lineWidth;
+		}
+
+		public Chunk call() {
+			Printer<NoExceptions> p = new Printer<NoExceptions>(this, 0,
+					indentation);
+			block.printContents(p, from, to);
+			p.flushLine();
+			endPos = p.position();
+			return this;
+		}
+
+		/** Send the recorded output to <code>back</code>. */
+		<Exc extends Exception> void replay(Backend<Exc> back) throws Exc {
+			for (Object o : ops) {
+				if (o instanceof String) {
+					back.print((String) o);
+				} else if (o == NEWLINE) {
+					back.newLine();
+				} else {
+					back.mark(((Object[]) o)[0]);
+				}
+			}
+		}
+
+		public void print(String s) {
+			ops.add(s);
+		}
+
+		public void newLine() {
+			ops.add(NEWLINE);
+		}
+
+		public void mark(Object o) {
+			ops.add(new Object[] { o });
+		}
+
+		public void close() {
+			return;
+		}
+
+		public void flush() {
+			return;
+		}
+
+		public int lineWidth() {
+			return lineWidth;
+		}
+
+		/** Not used, text widths are part of the document. */
+		public int measure(String s) {
+			return s.length();
+		}
+	}
+
+	private static int sum(Doc[] docs) {
+		int s = 0;
+		for (Doc d : docs) {
+			s = add(s, d.flatWidth());
+		}
+		return s;
+	}
+}
@@ -0,0 +1,341 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link Doc} from the calls of the {@link Layouter} API.  Since
+ * a DocBuilder is a {@link DataLayouter}, any code written to print to a
+ * DataLayouter, including {@link DataLayouter#print(Object)} and the
+ * {@link PrettyPrintable#prettyPrint(DataLayouter)} methods, can be used
+ * to build a document:
+ * 
+ * <pre>
+ * DocBuilder b = new DocBuilder();
+ * Doc d = b.print(data).build();
+ * d.render(backend1);
+ * d.render(backend2);
+ * </pre>
+ * 
+ * <p>Nothing is laid out while the document is built. Text is measured
+ * by the backend given to the constructor, or assumed to need one column
+ * per character.  {@link #close()} and {@link #finish()} merely check that
+ * all blocks have been ended; {@link #flush()} does nothing.
+ * 
+ * @since 1.0.1
+ */
+public class DocBuilder extends DataLayouter<NoExceptions> {
+
+	/** The backend used to measure text, or <code>null</code> */
+	private final Backend<?> measure;
+
+	/** The material outside of any block */
+	private final List<Doc> top = new ArrayList<Doc>();
+
+	/** The open blocks, outermost first */
+	private final List<Frame> blocks = new ArrayList<Frame>();
+
+	/**
+	 * Create a DocBuilder with {@link #DEFAULT_INDENTATION} which assumes
+	 * one column per character.
+	 */
+	public DocBuilder() {
+		this(null, DEFAULT_INDENTATION);
+	}
+
+	/**
+	 * Create a DocBuilder which assumes one column per character.
+	 * 
+	 * @param indentation the default indentation
+	 */
+	public DocBuilder(int indentation) {
+		this(null, indentation);
+	}
+
+	/**
+	 * Create a DocBuilder which measures text like <code>measure</code>.
+	 * 
+	 * @param measure the backend used to measure text, or <code>null</code>
+	 * @param indentation the default indentation
+	 */
+	public DocBuilder(Backend<?> measure, int indentation) {
+		super(new StringBackend(DEFAULT_LINE_WIDTH), indentation);
+		this.measure = measure;
+	}
+
+	/**
+	 * Return the document built so far, and start over with an empty
+	 * document.
+	 * 
+	 * @return the document
+	 * @throws UnbalancedBlocksException if some blocks have not been ended
+	 */
+	public Doc build() {
+		if (!blocks.isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		Doc result;
+		if (top.size() == 1) {
+			result = top.get(0);
+		} else {
+			result = Doc.concat(top.toArray(new Doc[top.size()]));
+		}
+		top.clear();
+		return result;
+	}
+
+	private void add(Doc d) {
+		if (blocks.isEmpty()) {
+			top.add(d);
+		} else {
+			blocks.get(blocks.size() - 1).contents.add(d);
+		}
+	}
+
+	/** A block which has been begun but not ended. */
+	private static final class Frame {
+		final BreakConsistency cons;
+		final IndentationBase indBase;
+		final int indent;
+		final List<Doc> contents = new ArrayList<Doc>();
+
+		Frame(BreakConsistency cons, IndentationBase indBase, int indent) {
+			this.cons = cons;
+			this.indBase = indBase;
+			this.indent = indent;
+		}
+	}
+
+	// OVERRIDES OF PRIMITIVE OPERATIONS --------------------------------
+
+	@Override
+	public DocBuilder print(String s) {
+		add(Doc.text(s, measure == null ? s.length() : measure.measure(s)));
+		return this;
+	}
+
+	@Override
+	public DocBuilder print(CharSequence s) {
+		return print(s.toString());
+	}
+
+	@Override
+	public DocBuilder print(char[] buf, int off, int len) {
+		return print(new String(buf, off, len));
+	}
+
+	@Override
+	public DocBuilder printAll(CharSequence... parts) {
+		for (CharSequence s : parts) {
+			print(s.toString());
+		}
+		return this;
+	}
+
+	@Override
+	public DocBuilder printSeparated(Iterable<?> items, CharSequence sep,
+			int brkWidth) {
+		Iterator<?> it = items.iterator();
+		while (it.hasNext()) {
+			print(String.valueOf(it.next()));
+			if (it.hasNext()) {
+				print(sep.toString()).brk(brkWidth, 0);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public DocBuilder begin(BreakConsistency cons, IndentationBase indBase,
+			int indent) {
+		blocks.add(new Frame(cons, indBase, indent));
+		return this;
+	}
+
+	@Override
+	public DocBuilder end() {
+		if (blocks.isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+		Frame f = blocks.remove(blocks.size() - 1);
+		add(Doc.block(f.cons, f.indBase, f.indent,
+				f.contents.toArray(new Doc[f.contents.size()])));
+		return this;
+	}
+
+	@Override
+	public DocBuilder brk(int width, int offset) {
+		add(Doc.brk(width, offset));
+		return this;
+	}
+
+	@Override
+	public DocBuilder nl() {
+		add(Doc.nl());
+		return this;
+	}
+
+	@Override
+	public DocBuilder ind(int width, int offset) {
+		add(Doc.ind(width, offset));
+		return this;
+	}
+
+	@Override
+	public DocBuilder mark(Object o) {
+		add(Doc.mark(o));
+		return this;
+	}
+
+	@Override
+	public DocBuilder flush() {
+		return this;
+	}
+
+	@Override
+	public void finish() {
+		if (!blocks.isEmpty()) {
+			throw new UnbalancedBlocksException();
+		}
+	}
+
+	@Override
+	public void close() {
+		finish();
+	}
+
+	// COVARIANT OVERRIDES OF INHERITED METHODS --------------------------
+
+	@Override
+	public DocBuilder print(Object o) {
+		super.print(o);
+		return this;
+	}
+
+	@Override
+	public DocBuilder print(Collection<?> c) {
+		super.print(c);
+		return this;
+	}
+
+	@Override
+	public DocBuilder print(Map<?, ?> m) {
+		super.print(m);
+		return this;
+	}
+
+	@Override
+	public DocBuilder printArray(Object o) {
+		super.printArray(o);
+		return this;
+	}
+
+	@Override
+	public DocBuilder printEntry(Map.Entry<?, ?> e) {
+		super.printEntry(e);
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginC() {
+		super.beginC();
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginC(int indent) {
+		super.beginC(indent);
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginI() {
+		super.beginI();
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginI(int indent) {
+		super.beginI(indent);
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginCInd() {
+		super.beginCInd();
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginCInd(int indent) {
+		super.beginCInd(indent);
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginIInd() {
+		super.beginIInd();
+		return this;
+	}
+
+	@Override
+	public DocBuilder beginIInd(int indent) {
+		super.beginIInd(indent);
+		return this;
+	}
+
+	@Override
+	public DocBuilder brk() {
+		super.brk();
+		return this;
+	}
+
+	@Override
+	public DocBuilder brk(int width) {
+		super.brk(width);
+		return this;
+	}
+
+	@Override
+	public DocBuilder ind() {
+		super.ind();
+		return this;
+	}
+
+	@Override
+	public DocBuilder pre(String s) {
+		super.pre(s);
+		return this;
+	}
+}
@@ -0,0 +1,473 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link DataLayouter} which decides about line breaks greedily, in a
+ * single pass, without looking ahead.  It has the same API as a
+ * {@link Layouter}, so code written for a DataLayouter, like the
+ * {@link PrettyPrintable#prettyPrint(DataLayouter)} methods, works
+ * unchanged, but nothing is buffered: apart from a stack of the open
+ * blocks, it needs a constant amount of memory, and output reaches the
+ * backend as soon as the following text is printed.
+ * 
+ * <p>A break is only decided when the next text arrives: the line is
+ * broken if that text would not fit on the line otherwise.  Once a break
+ * in a consistent block is broken, all following breaks of that block
+ * are broken too; earlier ones stay as they were.  An indentation
+ * indents to the indentation level of its block if a break in the block
+ * has been broken before.  Blocks opened after a pending break get their
+ * indentation level once the break is decided.  A mark decides a pending
+ * break as if it was followed by empty text.
+ * 
+ * <p>The result is usually close to what a {@link Layouter} produces for
+ * short blocks, but blocks that do not fit are only broken where the
+ * text runs into the right margin, and lines may be longer than the line
+ * width where a block cannot be broken in time.  A GreedyLayouter
+ * writes to a single backend.
+ * 
+ * @param <Exc> The type of exceptions that might be thrown by the backend.
+ * 
+ * @since 1.0.1
+ */
+public class GreedyLayouter<Exc extends Exception> extends DataLayouter<Exc> {
+
+	/** The backend */
+	private Backend<Exc> back;
+
+	/** The line width of the backend */
+	private int lineWidth;
+
+	/** The position in the current line */
+	private int pos = 0;
+
+	/** The number of open blocks */
+	private int depth = 0;
+
+	/** The indentation level of each open block */
+	private int[] indentation = new int[16];
+
+	/** The <code>indent</code> of each open block */
+	private int[] indent = new int[16];
+
+	/** The {@link #CONSISTENT}, {@link #FROM_IND} and {@link #BROKEN}
+	 * flags of each open block */
+	private byte[] flags = new byte[16];
+
+	private static final byte CONSISTENT = 1;
+	private static final byte FROM_IND = 2;
+	private static final byte BROKEN = 4;
+
+	/** Whether a break is waiting for the next text */
+	private boolean pending = false;
+
+	/** The width of the pending break */
+	private int pendingWidth;
+
+	/** The indentation of the next line if the pending break is broken */
+	private int pendingMargin;
+
+	/** The block of the pending break, an index into the block arrays,
+	 * or -1 if the block has been ended. */
+	private int pendingBlock;
+
+	/** The index of the first block begun after the pending break */
+	private int pendingFirst;
+
+	/** Spaces at the end of the current line which have not been
+	 * written yet, see {@link #setTrailingSpaces(TrailingSpaces)} */
+	private int pendingSpaces = 0;
+
+	/** Whether text has been printed on the current line */
+	private boolean lineHasText = false;
+
+	/** Whether nothing has been written on the current line yet */
+	private boolean atLineStart = true;
+
+	private boolean finished = false;
+
+	/**
+	 * Construts a newly allocated GreedyLayouter which will send output to
+	 * the given {@link Backend} and has the given default indentation.
+	 * 
+	 * @param back the Backend
+	 * @param indentation the default indentation
+	 */
+	public GreedyLayouter(Backend<Exc> back, int indentation) {
+		super(back, indentation);
+		this.back = back;
+		this.lineWidth = back.lineWidth();
+	}
+
+	/**
+	 * Make this GreedyLayouter start over, sending its output to the one
+	 * backend in <code>backs</code>.  {@link #reset(Backend)} comes here
+	 * as well.
+	 * 
+	 * @param backs a list containing the new Backend
+	 * @throws IllegalArgumentException if there is not exactly one backend
+	 */
+	@Override
+	public void reset(List<? extends Backend<Exc>> backs) {
+		if (backs.size() != 1) {
+			throw new IllegalArgumentException(
+					"GreedyLayouter needs exactly one backend");
+		}
+		super.reset(backs);
+		this.back = backs.get(0);
+		this.lineWidth = back.lineWidth();
+		pos = 0;
+		depth = 0;
+		pending = false;
+		pendingSpaces = 0;
+		lineHasText = false;
+		atLineStart = true;
+		finished = false;
+	}
+
+	// OVERRIDES OF PRIMITIVE OPERATIONS --------------------------------
+
+	@Override
+	public GreedyLayouter<Exc> print(String s) throws Exc {
+		checkNotFinished();
+		int width = back.measure(s);
+		decide(width);
+		beforeText();
+		back.print(s);
+		pos += width;
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> print(CharSequence s) throws Exc {
+		checkNotFinished();
+		int width = back.measure(s);
+		decide(width);
+		beforeText();
+		back.print(s);
+		pos += width;
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> print(char[] buf, int off, int len)
+			throws Exc {
+		checkNotFinished();
+		int width = back.measure(buf, off, len);
+		decide(width);
+		beforeText();
+		back.print(buf, off, len);
+		pos += width;
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> printAll(CharSequence... parts) throws Exc {
+		checkNotFinished();
+		int width = 0;
+		for (CharSequence s : parts) {
+			width += back.measure(s);
+		}
+		decide(width);
+		beforeText();
+		for (CharSequence s : parts) {
+			back.print(s);
+		}
+		pos += width;
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> printSeparated(Iterable<?> items,
+			CharSequence sep, int brkWidth) throws Exc {
+		Iterator<?> it = items.iterator();
+		while (it.hasNext()) {
+			print(String.valueOf(it.next()));
+			if (it.hasNext()) {
+				print(sep).brk(brkWidth, 0);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> begin(BreakConsistency cons,
+			IndentationBase indBase, int indent) {
+		checkNotFinished();
+		if (depth == flags.length) {
+			indentation = Arrays.copyOf(indentation, 2 * depth);
+			this.indent = Arrays.copyOf(this.indent, 2 * depth);
+			flags = Arrays.copyOf(flags, 2 * depth);
+		}
+		byte f = 0;
+		if (cons == BreakConsistency.CONSISTENT) {
+			f |= CONSISTENT;
+		}
+		if (indBase == IndentationBase.FROM_IND) {
+			f |= FROM_IND;
+		}
+		flags[depth] = f;
+		this.indent[depth] = indent;
+		/* recomputed when a pending break is decided */
+		indentation[depth] = indentationBase(depth) + indent;
+		depth++;
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> end() {
+		checkNotFinished();
+		if (depth == 0) {
+			throw new UnbalancedBlocksException();
+		}
+		depth--;
+		if (pending) {
+			if (pendingBlock == depth) {
+				pendingBlock = -1;
+			}
+			pendingFirst = Math.min(pendingFirst, depth);
+		}
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> brk(int width, int offset) throws Exc {
+		checkNotFinished();
+		if (depth == 0) {
+			throw new UnbalancedBlocksException();
+		}
+		decide(0);
+		int b = depth - 1;
+		if ((flags[b] & (CONSISTENT | BROKEN)) == (CONSISTENT | BROKEN)) {
+			newLine(indentation[b] + offset);
+		} else {
+			pending = true;
+			pendingWidth = width;
+			pendingMargin = indentation[b] + offset;
+			pendingBlock = b;
+			pendingFirst = depth;
+		}
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> nl() throws Exc {
+		checkNotFinished();
+		if (depth == 0) {
+			throw new UnbalancedBlocksException();
+		}
+		decide(0);
+		for (int b = 0; b < depth; b++) {
+			flags[b] |= BROKEN;
+		}
+		newLine(indentation[depth - 1]);
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> ind(int width, int offset) throws Exc {
+		checkNotFinished();
+		decide(width);
+		if (depth == 0 || (flags[depth - 1] & BROKEN) == 0) {
+			writeSpaces(width);
+		} else {
+			int margin = indentation[depth - 1] + offset;
+			if (margin > pos) {
+				writeSpaces(margin - pos);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> mark(Object o) throws Exc {
+		checkNotFinished();
+		decide(0);
+		writePendingSpaces();
+		back.mark(o);
+		return this;
+	}
+
+	@Override
+	public GreedyLayouter<Exc> flush() throws Exc {
+		checkNotFinished();
+		back.flush();
+		return this;
+	}
+
+	@Override
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public void finish() throws Exc {
+		try {
+			checkNotFinished();
+			if (depth != 0) {
+				throw new UnbalancedBlocksException();
+			}
+			decide(0);
+			endLine();
+		} finally {
+			finished = true;
+		}
+	}
+
+	@Override
+	public void close() throws Exc {
+		if (!finished) {
+			finish();
+		}
+		back.close();
+	}
+
+	// PRIVATE METHODS -----------------------------------------------
+
+	private void checkNotFinished() {
+		if (finished) {
+			throw new IllegalStateException("Layouter is already finished");
+		}
+	}
+
+	/** The position the indentation of block <code>b</code> is
+	 * relative to. */
+	private int indentationBase(int b) {
+		if ((flags[b] & FROM_IND) == 0) {
+			return pos;
+		} else {
+			return b == 0 ? 0 : indentation[b - 1];
+		}
+	}
+
+	/** Decide the pending break, if any, to be followed by material of
+	 * the given width. */
+	private void decide(int width) throws Exc {
+		if (!pending) {
+			return;
+		}
+		pending = false;
+		if (pos + pendingWidth + width > lineWidth) {
+			if (pendingBlock >= 0) {
+				flags[pendingBlock] |= BROKEN;
+			}
+			newLine(pendingMargin);
+		} else {
+			writeSpaces(pendingWidth);
+		}
+		/* the blocks begun after the break start here */
+		for (int c = pendingFirst; c < depth; c++) {
+			indentation[c] = indentationBase(c) + indent[c];
+		}
+	}
+
+	/** Start a new line, indented to <code>margin</code>. */
+	private void newLine(int margin) throws Exc {
+		endLine();
+		if (getTrailingSpaces() == TrailingSpaces.KEEP
+				&& getTabWidth() == 0) {
+			back.newLine(margin > 0 ? margin : 0);
+			atLineStart = margin <= 0;
+			pos = margin;
+			return;
+		}
+		back.newLine();
+		atLineStart = true;
+		pos = 0;
+		if (margin > 0) {
+			writeSpaces(margin);
+		}
+		pos = margin;
+	}
+
+	/** Deal with the pending spaces at the end of the current line, as
+	 * chosen by {@link #getTrailingSpaces()}. */
+	private void endLine() throws Exc {
+		TrailingSpaces t = getTrailingSpaces();
+		if (t == TrailingSpaces.KEEP
+				|| (t == TrailingSpaces.LAZY_INDENTATION && lineHasText)) {
+			writePendingSpaces();
+		}
+		pendingSpaces = 0;
+		lineHasText = false;
+	}
+
+	/** Write the pending spaces before text is printed. */
+	private void beforeText() throws Exc {
+		writePendingSpaces();
+		lineHasText = true;
+		atLineStart = false;
+	}
+
+	/** Write <code>n</code> spaces and advance the position.  Unless all
+	 * spaces are kept, they are only written once text follows.  So are
+	 * spaces at the start of a line if a tab width is set, so that all
+	 * of the leading white space is written with tabs. */
+	private void writeSpaces(int n) throws Exc {
+		pos += n;
+		if (getTrailingSpaces() == TrailingSpaces.KEEP
+				&& pendingSpaces == 0
+				&& !(atLineStart && getTabWidth() > 0)) {
+			printSpaces(n);
+		} else {
+			pendingSpaces += n;
+		}
+	}
+
+	private void writePendingSpaces() throws Exc {
+		if (pendingSpaces > 0) {
+			printSpaces(pendingSpaces);
+			pendingSpaces = 0;
+		}
+	}
+
+	/** Print <code>n</code> columns of white space, with tabs as far as
+	 * possible at the start of a line if a tab width is set. */
+	private void printSpaces(int n) throws Exc {
+		int tabWidth = getTabWidth();
+		if (atLineStart && tabWidth > 0) {
+			for (int tabs = n / tabWidth; tabs > 0;) {
+				int k = Math.min(tabs, Indentation.CACHED);
+				back.print(Indentation.tabs(k));
+				tabs -= k;
+			}
+			n %= tabWidth;
+		}
+		atLineStart = false;
+		while (n > 0) {
+			int k = Math.min(n, Indentation.CACHED);
+			back.print(Indentation.spaces(k));
+			n -= k;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** A {@link TokenQueue} kept on the Java heap in struct-of-arrays form:
+ * every token is a slot in a number of parallel arrays, so enqueueing a
+ * token amounts to a few array stores and does not allocate.
+ */
+final class HeapTokenQueue extends TokenQueue {
+
+	/** The capacity minus one.  The capacity is always a power of two. */
+	private int mask;
+
+	private int[] kind;
+	private int[] width;
+	private int[] offset;
+	private long[] begin;
+	private long[] end;
+	private Object[] object;
+
+	/** Create an empty queue.
+	 * @param capacity the initial capacity, rounded up to a power of two
+	 */
+	HeapTokenQueue(int capacity) {
+		allocate(capacity(capacity));
+	}
+
+	private void allocate(int capacity) {
+		kind = new int[capacity];
+		width = new int[capacity];
+		offset = new int[capacity];
+		begin = new long[capacity];
+		end = new long[capacity];
+		object = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	int add(int k, int w, int off, long b, Object o) {
+		if (tail - head > mask) {
+			grow();
+		}
+		int t = tail++;
+		int i = t & mask;
+		kind[i] = k;
+		width[i] = w;
+		offset[i] = off;
+		begin[i] = b;
+		end[i] = -1;
+		object[i] = o;
+		return t;
+	}
+
+	void removeFirst() {
+		object[head & mask] = null;
+		head++;
+	}
+
+	int flags(int t) {
+		return kind[t & mask];
+	}
+
+	int width(int t) {
+		return width[t & mask];
+	}
+
+	int offset(int t) {
+		return offset[t & mask];
+	}
+
+	long begin(int t) {
+		return begin[t & mask];
+	}
+
+	long end(int t) {
+		return end[t & mask];
+	}
+
+	Object object(int t) {
+		return object[t & mask];
+	}
+
+	void setEnd(int t, long e) {
+		end[t & mask] = e;
+	}
+
+	/** Double the capacity, keeping every token at the slot its
+	 * sequence number maps to. */
+	private void grow() {
+		int[] oKind = kind;
+		int[] oWidth = width;
+		int[] oOffset = offset;
+		long[] oBegin = begin;
+		long[] oEnd = end;
+		Object[] oObject = object;
+		int oMask = mask;
+
+		allocate(2 * (oMask + 1));
+
+		for (int t = head; t != tail; t++) {
+			int from = t & oMask;
+			int to = t & mask;
+			kind[to] = oKind[from];
+			width[to] = oWidth[from];
+			offset[to] = oOffset[from];
+			begin[to] = oBegin[from];
+			end[to] = oEnd[from];
+			object[to] = oObject[from];
+		}
+	}
+}
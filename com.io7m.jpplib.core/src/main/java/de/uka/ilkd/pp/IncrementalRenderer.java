@@ -0,0 +1,466 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uka.ilkd.pp.Doc.Block;
+import de.uka.ilkd.pp.Doc.Break;
+import de.uka.ilkd.pp.Doc.Concat;
+
+/**
+ * Renders successive versions of a {@link Doc} to a
+ * {@link LineRangeBackend}, replacing only the lines that change.
+ * 
+ * <p>The first call to {@link #render(Doc)} sends the whole layout to the
+ * backend.  The layout of every block is remembered, together with the
+ * position and indentation level it was laid out at, since these
+ * determine it completely.  Later versions of the document are expected
+ * to be built from the previous one by replacing some subtree, and
+ * rebuilding the blocks enclosing it with the factory methods of
+ * {@link Doc}, reusing the same objects for all other subtrees.  On
+ * rendering such a version, only the rebuilt blocks are laid out again;
+ * any unchanged block that starts at the same position and indentation
+ * as before keeps its previous layout.  The renderer then determines the
+ * range of lines that differ from the previous output and sends only
+ * these to the backend, after a call to
+ * {@link LineRangeBackend#replaceLines(int, int)}.
+ * 
+ * <p>The work done for an update is thus proportional to the size of the
+ * changed subtree, the number of contents of the blocks enclosing it, and
+ * the number of lines whose layout actually changed, but not to the size
+ * of the whole document.
+ * 
+ * @param <Exc> The type of exceptions that might be thrown by the backend.
+ * 
+ * @since 1.0.1
+ */
+public final class IncrementalRenderer<Exc extends Exception> {
+
+	/** Marks a call to {@link Backend#newLine()} in a layout. */
+	private static final Object NEWLINE = new Object();
+
+	private final LineRangeBackend<Exc> back;
+
+	/** The layout of the last rendered document, or null */
+	private Fragment current;
+
+	/**
+	 * Create a renderer sending its output to <code>back</code>.
+	 * 
+	 * @param back the backend
+	 */
+	public IncrementalRenderer(LineRangeBackend<Exc> back) {
+		this.back = back;
+	}
+
+	/**
+	 * Lay out <code>doc</code>, and update the output of the backend to
+	 * show its layout.
+	 * 
+	 * @param doc the new version of the document
+	 */
+	public void render(Doc doc) throws Exc {
+		Fragment old = current;
+		if (old != null && old.doc == doc) {
+			return;
+		}
+
+		Recorder rec = new Recorder(back.lineWidth());
+		Printer<NoExceptions> p = new Printer<NoExceptions>(rec);
+		layout(doc, p, rec, new Children(old));
+		p.flushLine();
+		Fragment next = rec.fragment(doc, 0, 0, p.position());
+		current = next;
+
+		if (old == null) {
+			emitLines(next, 0, next.newlines + 1);
+			return;
+		}
+
+		int prefix = commonLines(old, next, false);
+		if (prefix < 0) {
+			/* the output did not change */
+			return;
+		}
+		int suffix = Math.min(commonLines(old, next, true),
+				Math.min(old.newlines, next.newlines) - prefix);
+		back.replaceLines(prefix, old.newlines + 1 - suffix);
+		emitLines(next, prefix, next.newlines + 1 - suffix);
+	}
+
+	/**
+	 * Returns the number of lines of the current output.
+	 * 
+	 * @return the number of lines, or 0 if nothing was rendered yet
+	 */
+	public int getLineCount() {
+		return current == null ? 0 : current.newlines + 1;
+	}
+
+	/**
+	 * Returns the backend this renderer sends its output to.
+	 * 
+	 * @return the backend
+	 */
+	public LineRangeBackend<Exc> getBackend() {
+		return back;
+	}
+
+	// LAYOUT -------------------------------------------------------
+
+	/** Lay out <code>d</code> using <code>out</code>, which records to
+	 * <code>rec</code>, reusing the layouts in <code>old</code> for
+	 * blocks where possible. */
+	private void layout(Doc d, Printer<NoExceptions> out, Recorder rec,
+			Children old) {
+		if (d instanceof Block) {
+			Block b = (Block) d;
+			int pos = out.position();
+			int ind = out.topIndentation();
+			Fragment f = old.find(b, pos, ind);
+			if (f == null || f.doc != b || f.pos != pos || f.ind != ind) {
+				f = layoutBlock(b, pos, ind, f);
+			}
+			out.flushLine();
+			rec.add(f);
+			out.setPosition(f.endPos);
+		} else if (d instanceof Concat) {
+			for (Doc e : ((Concat) d).parts) {
+				layout(e, out, rec, old);
+			}
+		} else {
+			d.print(out);
+		}
+	}
+
+	/** Lay out the block <code>b</code> starting at position
+	 * <code>pos</code> in an enclosing block with indentation level
+	 * <code>ind</code>.  The children of <code>hint</code>, if not null,
+	 * are reused where possible. */
+	private Fragment layoutBlock(Block b, int pos, int ind, Fragment hint) {
+		Recorder rec = new Recorder(back.lineWidth());
+		Printer<NoExceptions> out = new Printer<NoExceptions>(rec, pos, ind);
+		Children old = new Children(hint);
+
+		out.openBlock(b.cons, b.indBase, b.indent, b.flatWidth());
+		for (int i = 0; i < b.contents.length; i++) {
+			Doc d = b.contents[i];
+			if (d.isBreak()) {
+				out.printBreak(d.flatWidth(), ((Break) d).offset,
+						b.followingSizes[i]);
+			} else {
+				layout(d, out, rec, old);
+			}
+		}
+		out.closeBlock();
+		out.flushLine();
+		return rec.fragment(b, pos, ind, out.position());
+	}
+
+	// OUTPUT -------------------------------------------------------
+
+	/** Returns the number of line breaks before the first difference
+	 * between the output of <code>a</code> and <code>b</code>, or after
+	 * the last one if <code>reverse</code> is set.  Returns -1 if the
+	 * output is the same. */
+	private static int commonLines(Fragment a, Fragment b, boolean reverse) {
+		Cursor x = new Cursor(a, reverse);
+		Cursor y = new Cursor(b, reverse);
+		int lines = 0;
+		while (true) {
+			Object i = x.peek();
+			Object j = y.peek();
+			if (i == null && j == null) {
+				return -1;
+			} else if (i == j && i instanceof Fragment) {
+				/* the same layout, no need to look inside */
+				lines += ((Fragment) i).newlines;
+				x.advance();
+				y.advance();
+			} else if (i instanceof Fragment) {
+				x.descend();
+			} else if (j instanceof Fragment) {
+				y.descend();
+			} else if (i == null || j == null || !sameCall(i, j)) {
+				return lines;
+			} else {
+				if (i == NEWLINE) {
+					lines++;
+				}
+				x.advance();
+				y.advance();
+			}
+		}
+	}
+
+	/** Whether the recorded calls <code>i</code> and <code>j</code>
+	 * produce the same output. */
+	private static boolean sameCall(Object i, Object j) {
+		if (i instanceof String) {
+			return i.equals(j);
+		} else if (i instanceof Object[] && j instanceof Object[]) {
+			Object o = ((Object[]) i)[0];
+			Object p = ((Object[]) j)[0];
+			return o == null ? p == null : o.equals(p);
+		} else {
+			return i == j;
+		}
+	}
+
+	/** The number of line breaks seen by {@link #emit} */
+	private int emitted;
+
+	/** Send the lines <code>from</code> up to, excluding, <code>to</code>
+	 * of the layout <code>f</code> to the backend. */
+	private void emitLines(Fragment f, int from, int to) throws Exc {
+		emitted = 0;
+		emit(f, from, to);
+	}
+
+	/** Send the part of the layout <code>f</code> which is in lines
+	 * <code>from</code> to <code>to-1</code> to the backend.  Returns
+	 * true when line <code>to</code> is reached. */
+	private boolean emit(Fragment f, int from, int to) throws Exc {
+		for (Object o : f.items) {
+			if (o instanceof Fragment) {
+				Fragment g = (Fragment) o;
+				if (emitted + g.newlines < from) {
+					emitted += g.newlines;
+				} else if (emit(g, from, to)) {
+					return true;
+				}
+			} else if (o == NEWLINE) {
+				emitted++;
+				if (emitted == to) {
+					return true;
+				} else if (emitted > from) {
+					back.newLine();
+				}
+			} else if (emitted >= from) {
+				if (o instanceof String) {
+					back.print((String) o);
+				} else {
+					back.mark(((Object[]) o)[0]);
+				}
+			}
+		}
+		return false;
+	}
+
+	// HELPER CLASSES -----------------------------------------------
+
+	/** The layout of a block, or of a whole document.  The layout consists
+	 * of the calls made to the backend, recorded as in
+	 * {@link Doc.Chunk}, and the layouts of the blocks it contains. */
+	private static final class Fragment {
+		final Doc doc;
+
+		/** The position the layout starts at */
+		final int pos;
+
+		/** The indentation level of the enclosing block */
+		final int ind;
+
+		/** The position at the end of the layout */
+		final int endPos;
+
+		/** <code>String</code>s, {@link IncrementalRenderer#NEWLINE},
+		 * <code>Object[]</code>s holding marks, and
+		 * <code>Fragment</code>s. */
+		final Object[] items;
+
+		/** The number of line breaks, including those in nested
+		 * fragments */
+		final int newlines;
+
+		Fragment(Doc doc, int pos, int ind, int endPos, Object[] items,
+				int newlines) {
+			this.doc = doc;
+			this.pos = pos;
+			this.ind = ind;
+			this.endPos = endPos;
+			this.items = items;
+			this.newlines = newlines;
+		}
+	}
+
+	/** The layouts of the blocks in a previous layout of a block. */
+	private static final class Children {
+		private final List<Fragment> fragments =
+			new ArrayList<Fragment>();
+		private final Map<Doc, Fragment> byDoc =
+			new IdentityHashMap<Doc, Fragment>();
+
+		/** The number of blocks looked up so far */
+		private int next = 0;
+
+		Children(Fragment parent) {
+			if (parent != null) {
+				for (Object o : parent.items) {
+					if (o instanceof Fragment) {
+						Fragment f = (Fragment) o;
+						fragments.add(f);
+						byDoc.put(f.doc, f);
+					}
+				}
+			}
+		}
+
+		/** Returns a previous layout of the next block <code>b</code>.
+		 * This is a layout of the same block at the same position and
+		 * indentation level if there is one.  Otherwise, it is some
+		 * layout whose nested layouts might be reused, or null. */
+		Fragment find(Block b, int pos, int ind) {
+			int k = next++;
+			Fragment f = byDoc.get(b);
+			if (f != null) {
+				if (f.pos == pos && f.ind == ind) {
+					return f;
+				}
+				for (Fragment g : fragments) {
+					if (g.doc == b && g.pos == pos && g.ind == ind) {
+						return g;
+					}
+				}
+				return f;
+			}
+			return k < fragments.size() ? fragments.get(k) : null;
+		}
+	}
+
+	/** A backend recording the calls made to it. */
+	private static final class Recorder implements Backend<NoExceptions> {
+		private final int lineWidth;
+		private final List<Object> items = new ArrayList<Object>();
+		private int newlines = 0;
+
+		Recorder(int lineWidth) {
+			this.lineWidth = lineWidth;
+		}
+
+		void add(Fragment f) {
+			items.add(f);
+			newlines += f.newlines;
+		}
+
+		Fragment fragment(Doc doc, int pos, int ind, int endPos) {
+			return new Fragment(doc, pos, ind, endPos, items.toArray(),
+					newlines);
+		}
+
+		public void print(String s) {
+			items.add(s);
+		}
+
+		public void newLine() {
+			items.add(NEWLINE);
+			newlines++;
+		}
+
+		public void mark(Object o) {
+			items.add(new Object[] { o });
+		}
+
+		public void close() {
+			return;
+		}
+
+		public void flush() {
+			return;
+		}
+
+		public int lineWidth() {
+			return lineWidth;
+		}
+
+		/** Not used, text widths are part of the document. */
+		public int measure(String s) {
+			return s.length();
+		}
+	}
+
+	/** A position in the recorded calls of a layout, moving forward or
+	 * backward, and entering nested layouts on request. */
+	private static final class Cursor {
+		private final boolean reverse;
+		private final List<Object[]> items = new ArrayList<Object[]>();
+		private int[] index = new int[16];
+
+		Cursor(Fragment f, boolean reverse) {
+			this.reverse = reverse;
+			push(f);
+		}
+
+		/** Returns the current item, or null at the end. */
+		Object peek() {
+			int d = items.size() - 1;
+			return d < 0 ? null : items.get(d)[index[d]];
+		}
+
+		/** Move to the next item. */
+		void advance() {
+			int d = items.size() - 1;
+			index[d] += reverse ? -1 : 1;
+			normalize();
+		}
+
+		/** Move into the current item, which is a fragment. */
+		void descend() {
+			Fragment f = (Fragment) peek();
+			int d = items.size() - 1;
+			index[d] += reverse ? -1 : 1;
+			push(f);
+		}
+
+		private void push(Fragment f) {
+			int d = items.size();
+			if (d == index.length) {
+				int[] n = new int[2 * d];
+				System.arraycopy(index, 0, n, 0, d);
+				index = n;
+			}
+			items.add(f.items);
+			index[d] = reverse ? f.items.length - 1 : 0;
+			normalize();
+		}
+
+		/** Leave the fragments whose items are exhausted. */
+		private void normalize() {
+			int d = items.size() - 1;
+			while (d >= 0 && (index[d] < 0 || index[d] >= items.get(d).length)) {
+				items.remove(d);
+				d--;
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.util.Arrays;
+
+/** Precomputed line breaks and indentation, shared by the backends.
+ * There is a char[] holding a newline followed by
+ * {@link #CACHED} spaces, so that a line break and its indentation
+ * can be written with a single bulk operation, and caches of
+ * Strings of spaces and of tabs for backends that accept only
+ * Strings.
+ *
+ * @since 1.0.1
+ */
+final class Indentation {
+
+	private Indentation() {
+	}
+
+	/** The longest run of spaces available from this class at once.
+	 * Deeper indentation has to be written in several pieces. */
+	static final int CACHED = 256;
+
+	/** A newline followed by <code>CACHED</code> spaces.  The first
+	 * <code>n+1</code> characters are a newline indented by
+	 * <code>n</code>, the characters from index 1 on are spaces.
+	 * Must not be modified. */
+	static final char[] NEWLINE_SPACES = new char[CACHED + 1];
+
+	/** Strings of spaces, created when first needed */
+	private static final String[] SPACES = new String[CACHED + 1];
+
+	/** Strings of tabs, created when first needed */
+	private static final String[] TABS = new String[CACHED + 1];
+
+	static {
+		NEWLINE_SPACES[0] = '\n';
+		Arrays.fill(NEWLINE_SPACES, 1, CACHED + 1, ' ');
+	}
+
+	/** Return a String of <code>n</code> spaces, where
+	 * <code>0 &lt;= n &lt;= CACHED</code>.  Repeated calls return the
+	 * same String. */
+	static String spaces(int n) {
+		String s = SPACES[n];
+		if (s == null) {
+			s = new String(NEWLINE_SPACES, 1, n);
+			SPACES[n] = s;
+		}
+		return s;
+	}
+
+	/** Return a String of <code>n</code> tabs, where
+	 * <code>0 &lt;= n &lt;= CACHED</code>.  Repeated calls return the
+	 * same String. */
+	static String tabs(int n) {
+		String s = TABS[n];
+		if (s == null) {
+			char[] c = new char[n];
+			Arrays.fill(c, '\t');
+			s = new String(c);
+			TABS[n] = s;
+		}
+		return s;
+	}
+}
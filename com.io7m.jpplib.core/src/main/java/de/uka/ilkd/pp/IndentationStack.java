@@ -28,8 +28,11 @@
 
 package de.uka.ilkd.pp;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/** The stack of indentation levels and break decisions of the blocks
+ * a {@link Printer} is currently in.  The stack is kept in two parallel
+ * primitive arrays, so pushing an element does not allocate. */
 class IndentationStack {
 
 	static enum BreakDecision {
@@ -41,46 +44,64 @@ class IndentationStack {
 		}
 	}
 	
-	private ArrayList<Entry> stack = new ArrayList<Entry>(10);
+	/** The indentation levels */
+	private int[] indentations = new int[16];
+
+	/** The break decisions, as <code>BreakDecision</code> ordinals */
+	private byte[] decisions = new byte[16];
+
+	/** The number of elements on the stack */
+	private int size = 0;
+
+	private static final BreakDecision[] DECISIONS = BreakDecision.values();
 	
 	/** Return whether the stack is empty. */
 	boolean isEmpty() {
-		return stack.isEmpty();
+		return size == 0;
+	}
+
+	/** Remove all elements from the margin stack. */
+	void clear() {
+		size = 0;
 	}
 
 	/** Pop one element from the margin stack. */
 	void pop() {
-		try {
-			stack.remove(stack.size() - 1);
-		} catch (IndexOutOfBoundsException e) {
+		if (size == 0) {
 			throw new UnbalancedBlocksException();
 		}
+		size--;
 	}
 
 	/** push one element,consisting of margin and 
 	 * break decision onto the margin stack. */
 	void push(int n, BreakDecision dec) {
-		stack.add(new Entry(n,dec));
+		if (size == indentations.length) {
+			indentations = Arrays.copyOf(indentations, 2 * size);
+			decisions = Arrays.copyOf(decisions, 2 * size);
+		}
+		indentations[size] = n;
+		decisions[size] = (byte) dec.ordinal();
+		size++;
 	}
 
-	/** return the topmost element of the margin stack without popping it. */
-	private Entry top() {
-		try {
-			return stack.get(stack.size() - 1);
-		} catch (IndexOutOfBoundsException e) {
+	/** return the index of the topmost element of the margin stack. */
+	private int top() {
+		if (size == 0) {
 			throw new UnbalancedBlocksException();
 		}
+		return size - 1;
 	}
 
 	/** return the margin of the top element of the margin stack. */
 	int topIndentation() {
-		return top().getIndentation();
+		return indentations[top()];
 	}
 
 
 	/** return the break type flags of the top element of the margin stack. */
 	BreakDecision topDecision() {
-		return top().getDecision();
+		return DECISIONS[decisions[top()]];
 	}
 
 	boolean topInconsistent() {
@@ -94,27 +115,4 @@ class IndentationStack {
 	boolean topFits() {
 		return topDecision() == BreakDecision.FITS;
 	}
-
-	private class Entry {
-		private final int indentation;
-		private final BreakDecision decision;
-		
-		Entry(final int indentation, final BreakDecision decision) {
-			super();
-			this.indentation = indentation;
-			this.decision = decision;
-		}
-		/**
-		 * @return the decision
-		 */
-		BreakDecision getDecision() {
-			return decision;
-		}
-		/**
-		 * @return the indentation
-		 */
-		int getIndentation() {
-			return indentation;
-		}		
-	}
 }
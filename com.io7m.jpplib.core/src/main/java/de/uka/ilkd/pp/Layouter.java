@@ -32,8 +32,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Pretty-print information formatted using line breaks and indentation. For
@@ -216,6 +222,13 @@ import java.util.StringTokenizer;
  * will begin before the whole input has been given, so this class can be used
  * to pretty-print a stream of data.
  * 
+ * <p>
+ * A Layouter may also send its output to several backends with different
+ * line widths at once, see {@link #Layouter(List, int)}. The material is
+ * then given to the Layouter only once, and the space calculations are
+ * shared; only the decisions where to break lines are taken for each
+ * backend separately.
+ * 
  * @param <Exc>
  *            The type of exceptions that might be thrown by the backend.
  * 
@@ -248,29 +261,42 @@ public class Layouter<Exc extends Exception> {
 	/** An enum type to distinguish indentation relative to the current position
 	 * or relative to the surrounding block's indentation level */
 	public static enum IndentationBase {FROM_POS,FROM_IND}
+
+	/** An enum type to choose which spaces are left out at the ends of
+	 * lines: none, the indentation of lines without text, or all of
+	 * them.  See {@link Layouter#setTrailingSpaces(TrailingSpaces)}.
+	 * @since 1.0.1 */
+	public static enum TrailingSpaces {KEEP,LAZY_INDENTATION,TRIM}
 	
-	/** The backend */
+	/** The backend, used to measure strings. */
 	private Backend<Exc> back;
 
-	/** The Printer used for output. */
-	private Printer<Exc> out;
+	/** The outputs, one for each backend. */
+	private Output[] outputs;
 
-	/** The list of scanned tokens not yet output. */
-	private List<StreamToken> stream = new java.util.LinkedList<StreamToken>();
+	/** The queue of scanned tokens not yet output. */
+	private TokenQueue stream = new HeapTokenQueue(64);
 
 	/**
-	 * A stack of <code>OpenBlockToken</code>s and <code>BreakToken</code>s
-	 * in <code>stream</code>, waiting for their size to be determined.
+	 * A stack of the sequence numbers of <code>OPEN_BLOCK</code> and
+	 * <code>BREAK</code> tokens in <code>stream</code>, waiting for their
+	 * size to be determined.
 	 */
-	private List<StreamToken> delimStack = new java.util.LinkedList<StreamToken>();
+	private DelimiterStack delimStack = new DelimiterStack();
 
 	/*
 	 * Some Invariants:
 	 * 
 	 * delimStack.isEmpty() implies stream.isEmpty()
 	 * 
-	 * Any OpenBlockToken in stream is also on the demlimStack. The latest
-	 * BreakToken of any open block in the stream is also on the delim stack.
+	 * Any OPEN_BLOCK token in stream is also on the demlimStack. The latest
+	 * BREAK token of any open block in the stream is also on the delim stack.
+	 * 
+	 * The first token in stream has not been sent to at least one of the
+	 * outputs. For every output, the next token to be sent is either the
+	 * end of stream, or a token whose following size is not known yet.
+	 * Tokens that have been sent to all outputs are removed from the stream
+	 * and from the delimStack.
 	 * 
 	 */
 
@@ -279,25 +305,79 @@ public class Layouter<Exc extends Exception> {
 	 * line. The difference of this between two states says how much space would
 	 * be needed to print the intervening stuff without line breaks.
 	 */
-	private int totalSize = 0;
-
-	/**
-	 * Total size of strings and blanks sent to the Printer <code>out</code>.
-	 * Subtract this from <code>totalOutput</code> and you get the space
-	 * needed to print what is still buffered in <code>stream</code>
-	 */
-	private int totalOutput = 0;
+	private long totalSize = 0;
 
 	/**
-	 * The size assigned to things which are guaranteed not to fit on a line.
-	 * For good measure, this is intitialized to twice the line width by the
-	 * constructors.
+	 * The following size passed to the Printer for tokens whose material is
+	 * known not to fit on the rest of the line. This is larger than the space
+	 * left on any line, even if negative offsets moved the position left of
+	 * column 0.
 	 */
-	private int largeSize;
+	private static final int INFINITE_SIZE = Integer.MAX_VALUE;
 
 	/** A default indentation value used for blocks. */
 	private int defaultInd;
 
+	/** The maximal number of tokens kept in <code>stream</code>. */
+	private int maxLookaheadTokens = Integer.MAX_VALUE;
+
+	/** The maximal space needed by the material kept in
+	 * <code>stream</code>. */
+	private int maxLookaheadSize = Integer.MAX_VALUE;
+
+	/** The largest number of tokens kept in <code>stream</code> so far. */
+	private int peakLookaheadTokens = 0;
+
+	/** The largest space needed by the material kept in
+	 * <code>stream</code> so far. */
+	private int peakLookaheadSize = 0;
+
+	/** The time in nanoseconds material may be pending before it is
+	 * committed and flushed. */
+	private long latencyNanos = Long.MAX_VALUE;
+
+	/** The number of calls that may be pending before the pending
+	 * material is committed and flushed. */
+	private int latencyTokens = Integer.MAX_VALUE;
+
+	/** Whether <code>pendingSince</code> is valid. */
+	private boolean pendingTimed = false;
+
+	/** The {@link System#nanoTime()} at which material last started to be
+	 * pending, if latency is limited. */
+	private long pendingSince;
+
+	/** Whether {@link #setTimeBudget(long, TimeUnit)} set a deadline. */
+	private boolean hasDeadline = false;
+
+	/** The {@link System#nanoTime()} at which the time budget ends. */
+	private long deadline;
+
+	/** Counts calls to {@link #advanceLeft()} between clock readings. */
+	private int budgetChecks = 0;
+
+	/** Number of calls to {@link #advanceLeft()} per clock reading. */
+	private static final int BUDGET_CHECK_INTERVAL = 64;
+
+	/** Set by {@link #cancel()}, possibly from another thread. */
+	private volatile boolean cancelled = false;
+
+	/** Whether pending material is sent out without waiting for its size. */
+	private boolean degraded = false;
+
+	/** The number of tokens sent out without knowing their size. */
+	private int degradedTokens = 0;
+
+	/** The sequence number of the next token that may be counted in
+	 * <code>degradedTokens</code>. */
+	private int degradedNext;
+
+	/** Which spaces are left out at the ends of lines */
+	private TrailingSpaces trailingSpaces = TrailingSpaces.KEEP;
+
+	/** The columns per tab of the indentation, or 0 for spaces */
+	private int tabWidth = 0;
+
 	// PRIMITIVE CONSTRUCTOR -------------------------------------------
 
 	/**
@@ -312,12 +392,113 @@ public class Layouter<Exc extends Exception> {
 	 */
 
 	public Layouter(Backend<Exc> back, int indentation) {
-		this.back = back;
-		out = new Printer<Exc>(back);
-		largeSize = 2 * back.lineWidth();
+		this(Collections.singletonList(back), indentation);
+	}
+
+	/**
+	 * Construts a newly allocated Layouter which will send output to all of
+	 * the given {@link Backend}s and has the given default indentation. Each
+	 * backend gets the material laid out for its own line width. All
+	 * backends must {@linkplain Backend#measure(String) measure} strings the
+	 * same way; the first one is used to do so.
+	 * 
+	 * @param backs
+	 *            the Backends
+	 * @param indentation
+	 *            the default indentation
+	 * @since 1.0.1
+	 */
+	public Layouter(List<? extends Backend<Exc>> backs, int indentation) {
+		if (backs.isEmpty()) {
+			throw new IllegalArgumentException("no backends");
+		}
+		setBackends(backs);
 		this.defaultInd = indentation;
 	}
 
+	private void setBackends(List<? extends Backend<Exc>> backs) {
+		this.back = backs.get(0);
+		if (outputs == null || outputs.length != backs.size()) {
+			@SuppressWarnings({"rawtypes", "unchecked"})
+			Output[] outputs = new Layouter.Output[backs.size()];
+			this.outputs = outputs;
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			Backend<Exc> b = backs.get(i);
+			if (outputs[i] == null) {
+				outputs[i] = new Output(b);
+			} else {
+				outputs[i].reset(b);
+			}
+		}
+	}
+
+	// LIFECYCLE -----------------------------------------------------
+
+	/**
+	 * Make this Layouter start over, sending its output to the given
+	 * {@link Backend}. Any material still buffered is discarded, and the
+	 * Layouter may be used again even if it has been finished or closed.
+	 * The internal buffers stay allocated, so a Layouter that is reset for
+	 * every document allocates hardly anything once the buffers have grown
+	 * to the size the documents need. The previous backend is not closed.
+	 * 
+	 * @param back
+	 *            the new Backend
+	 * @see LayouterPool
+	 * @since 1.0.1
+	 */
+	public void reset(Backend<Exc> back) {
+		reset(Collections.singletonList(back));
+	}
+
+	/**
+	 * Make this Layouter start over, sending its output to all of the given
+	 * {@link Backend}s, as described for {@link #reset(Backend)}.
+	 * 
+	 * @param backs
+	 *            the new Backends
+	 * @see #Layouter(List, int)
+	 * @since 1.0.1
+	 */
+	public void reset(List<? extends Backend<Exc>> backs) {
+		LOG.trace("reset");
+
+		if (backs.isEmpty()) {
+			throw new IllegalArgumentException("no backends");
+		}
+		stream.clear();
+		delimStack.clear();
+		totalSize = 0;
+		peakLookaheadTokens = 0;
+		peakLookaheadSize = 0;
+		pendingTimed = false;
+		hasDeadline = false;
+		cancelled = false;
+		degraded = false;
+		degradedTokens = 0;
+		setBackends(backs);
+		finished = false;
+	}
+
+	/**
+	 * Undo all settings made since this Layouter was created: lookahead
+	 * and latency limits, spilling or off-heap lookahead, trailing
+	 * spaces and tab width.  Used by {@link LayouterPool}, so that one
+	 * user's settings do not carry over to the next.  This must only be
+	 * called while no material is pending, e.g. right after a reset.
+	 */
+	void restoreDefaults() {
+		if (stream.getClass() != HeapTokenQueue.class) {
+			setStream(new HeapTokenQueue(64));
+		}
+		setLookaheadLimit(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		setLatencyLimit(Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+				Integer.MAX_VALUE);
+		setTrailingSpaces(TrailingSpaces.KEEP);
+		setTabWidth(0);
+	}
+
 	// STATIC FACTORY METHODS ----------------------------------------
 
 	/** = 80 : The line width for some of the convenience factories. */
@@ -415,6 +596,30 @@ public class Layouter<Exc extends Exception> {
 
 	// PROPERTY GETTERS ------------------------------------
 
+	/**
+	 * Gets the backend this Layouter sends its output to
+	 *
+	 * @return the backend
+	 * @since 1.0.1
+	 */
+	public Backend<Exc> getBackend() {
+		return back;
+	}
+
+	/**
+	 * Gets the backends this Layouter sends its output to
+	 *
+	 * @return the backends, in the order given to the constructor
+	 * @since 1.0.1
+	 */
+	public List<Backend<Exc>> getBackends() {
+		List<Backend<Exc>> result = new ArrayList<Backend<Exc>>(outputs.length);
+		for (Output o : outputs) {
+			result.add(o.out.backend());
+		}
+		return result;
+	}
+
 	/**
 	 * Gets default indentation for this block
 	 *
@@ -424,6 +629,414 @@ public class Layouter<Exc extends Exception> {
 		return defaultInd;
 	}
 
+	// LOOKAHEAD ------------------------------------
+
+	/**
+	 * Choose where this Layouter keeps the material it is waiting to
+	 * send to the backend.  By default, it is kept on the Java heap.  For
+	 * documents with blocks which stay open for a large part of the
+	 * output, this may be a lot of objects that the garbage collector
+	 * has to go through repeatedly.  If <code>offHeap</code> is set, the
+	 * material is kept in direct buffers outside of the Java heap
+	 * instead, except for the objects passed to {@link #mark(Object)}.
+	 * The text of the pending material is then copied once more on its way
+	 * to the backend.  The output is the same either way.  This may only
+	 * be called while no material is pending, e.g. before the first
+	 * call to {@link #begin(BreakConsistency, IndentationBase, int)}, and
+	 * is kept by {@link #reset(Backend)}.
+	 * 
+	 * @param offHeap
+	 *            whether to keep pending material outside of the heap
+	 * @throws IllegalStateException
+	 *             if material is pending
+	 * @since 1.0.1
+	 */
+	public void setOffHeapLookahead(boolean offHeap) {
+		if (!delimStack.isEmpty()) {
+			throw new IllegalStateException("material is pending");
+		}
+		if (offHeap != isOffHeapLookahead()) {
+			setStream(offHeap ? new DirectTokenQueue(64)
+					: new HeapTokenQueue(64));
+		}
+	}
+
+	/**
+	 * Returns whether pending material is kept outside of the heap
+	 *
+	 * @return whether pending material is kept outside of the heap
+	 * @see #setOffHeapLookahead(boolean)
+	 * @since 1.0.1
+	 */
+	public boolean isOffHeapLookahead() {
+		return stream instanceof DirectTokenQueue;
+	}
+
+	/**
+	 * Make this Layouter write older pending material to temporary files
+	 * when more than <code>threshold</code> calls are pending, instead of
+	 * keeping it in memory.  This allows to lay out documents of any size
+	 * with a bounded amount of memory, even if blocks stay open for a
+	 * large part of the output.  The material is read back in order, as it
+	 * is sent to the backend.  The output is the same, but errors
+	 * accessing the files are thrown as
+	 * {@link java.io.UncheckedIOException}s.  The files are deleted by
+	 * {@link #close()}.  Like {@link #setOffHeapLookahead(boolean)}, which
+	 * it replaces, this may only be called while no material is pending,
+	 * and is kept by {@link #reset(Backend)}.
+	 * 
+	 * @param threshold
+	 *            the number of pending calls kept in memory, or
+	 *            {@link Integer#MAX_VALUE} to keep all of them in memory
+	 * @param directory
+	 *            the directory for the temporary files, or null for the
+	 *            default temporary-file directory
+	 * @throws IllegalStateException
+	 *             if material is pending
+	 * @since 1.0.1
+	 */
+	public void setLookaheadSpill(int threshold, Path directory) {
+		if (!delimStack.isEmpty()) {
+			throw new IllegalStateException("material is pending");
+		}
+		setStream(threshold == Integer.MAX_VALUE ? new HeapTokenQueue(64)
+				: new SpillingTokenQueue(threshold, directory));
+	}
+
+	/**
+	 * Returns the number of pending calls kept in memory
+	 *
+	 * @return the threshold, or {@link Integer#MAX_VALUE} if all
+	 *         pending material is kept in memory
+	 * @see #setLookaheadSpill(int, Path)
+	 * @since 1.0.1
+	 */
+	public int getLookaheadSpillThreshold() {
+		return stream instanceof SpillingTokenQueue
+			? ((SpillingTokenQueue) stream).threshold()
+			: Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the current size of the temporary files holding pending
+	 * material.  The files are compacted as the material is sent to the
+	 * backend, so this stays proportional to the pending material.
+	 *
+	 * @return the size of the files in bytes, or 0 if there are none
+	 * @see #setLookaheadSpill(int, Path)
+	 * @since 1.0.1
+	 */
+	public long getLookaheadSpillFileSize() {
+		return stream instanceof SpillingTokenQueue
+			? ((SpillingTokenQueue) stream).fileSize()
+			: 0;
+	}
+
+	private void setStream(TokenQueue queue) {
+		stream.close();
+		stream = queue;
+		for (Output o : outputs) {
+			o.next = stream.next();
+		}
+	}
+
+	/**
+	 * Limit the amount of material this Layouter keeps while waiting to
+	 * determine whether blocks fit on a line.  Normally, a block is kept
+	 * until it is either closed, or known not to fit on the current line,
+	 * which for deeply nested short material may take a lot of memory.
+	 * With a limit, whenever more than <code>tokens</code> calls to
+	 * {@link #print(String)}, {@link #brk(int, int)}, {@link #ind(int, int)},
+	 * {@link #mark(Object)}, {@link #begin(BreakConsistency, IndentationBase, int)}
+	 * and {@link #end()} are pending, or the pending material needs more
+	 * than <code>size</code> space, the oldest pending block or break is
+	 * broken, even if it would fit.  The output is only changed in these
+	 * cases.  The limits are kept by {@link #reset(Backend)}.
+	 * 
+	 * @param tokens
+	 *            the maximal number of pending calls, or
+	 *            {@link Integer#MAX_VALUE} for no limit
+	 * @param size
+	 *            the maximal space needed by the pending material, or
+	 *            {@link Integer#MAX_VALUE} for no limit
+	 * @since 1.0.1
+	 */
+	public void setLookaheadLimit(int tokens, int size) {
+		if (tokens < 0 || size < 0) {
+			throw new IllegalArgumentException("negative lookahead limit");
+		}
+		this.maxLookaheadTokens = tokens;
+		this.maxLookaheadSize = size;
+	}
+
+	/**
+	 * Gets the maximal number of pending calls
+	 *
+	 * @return the limit, {@link Integer#MAX_VALUE} by default
+	 * @see #setLookaheadLimit(int, int)
+	 * @since 1.0.1
+	 */
+	public int getLookaheadTokenLimit() {
+		return maxLookaheadTokens;
+	}
+
+	/**
+	 * Gets the maximal space needed by the pending material
+	 *
+	 * @return the limit, {@link Integer#MAX_VALUE} by default
+	 * @see #setLookaheadLimit(int, int)
+	 * @since 1.0.1
+	 */
+	public int getLookaheadSizeLimit() {
+		return maxLookaheadSize;
+	}
+
+	/**
+	 * Gets the largest number of calls that were pending at any time
+	 * since this Layouter was created or reset.  This never exceeds
+	 * {@link #getLookaheadTokenLimit()}.
+	 *
+	 * @return the peak number of pending calls
+	 * @since 1.0.1
+	 */
+	public int getPeakLookaheadTokens() {
+		return peakLookaheadTokens;
+	}
+
+	/**
+	 * Gets the largest space needed by the material that was pending at
+	 * any time since this Layouter was created or reset.  This never
+	 * exceeds {@link #getLookaheadSizeLimit()}.
+	 *
+	 * @return the peak space needed by pending material
+	 * @since 1.0.1
+	 */
+	public int getPeakLookaheadSize() {
+		return peakLookaheadSize;
+	}
+
+	/**
+	 * Limit how long material may be kept waiting before it reaches the
+	 * backend, e.g. for output to a console while a large block is still
+	 * open.  Whenever material has been pending for more than
+	 * <code>time</code>, or more than <code>tokens</code> calls are
+	 * pending, all pending blocks and breaks are broken, as far as they
+	 * are not yet known to fit, and the material is sent to the backend,
+	 * which is then {@linkplain Backend#flush() flushed}.  Unlike
+	 * {@link #setLookaheadLimit(int, int)}, this breaks everything that is
+	 * pending at once, so it changes the layout more often.  While a
+	 * limit is set, text which is not pending is sent to the backend at
+	 * once, instead of with the rest of its line.  The limits are only
+	 * checked when material is added, since the Layouter has no thread
+	 * of its own.  They are kept by {@link #reset(Backend)}.
+	 * 
+	 * @param time
+	 *            the time material may be pending, or
+	 *            {@link Long#MAX_VALUE} for no limit
+	 * @param unit
+	 *            the unit of <code>time</code>
+	 * @param tokens
+	 *            the number of calls that may be pending, or
+	 *            {@link Integer#MAX_VALUE} for no limit
+	 * @since 1.0.1
+	 */
+	public void setLatencyLimit(long time, TimeUnit unit, int tokens) {
+		if (time < 0 || tokens < 0) {
+			throw new IllegalArgumentException("negative latency limit");
+		}
+		this.latencyNanos = time == Long.MAX_VALUE ? Long.MAX_VALUE
+				: unit.toNanos(time);
+		this.latencyTokens = tokens;
+		this.pendingTimed = false;
+		for (Output o : outputs) {
+			o.out.setLineBuffered(!hasLatencyLimit());
+		}
+	}
+
+	/** Returns whether a latency limit is set, so that text should reach
+	 * the backend without waiting for the end of its line. */
+	private boolean hasLatencyLimit() {
+		return latencyNanos != Long.MAX_VALUE
+			|| latencyTokens != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the time material may be pending before it is flushed
+	 *
+	 * @param unit
+	 *            the unit of the result
+	 * @return the limit, {@link Long#MAX_VALUE} by default
+	 * @see #setLatencyLimit(long, TimeUnit, int)
+	 * @since 1.0.1
+	 */
+	public long getLatencyTimeLimit(TimeUnit unit) {
+		return latencyNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+				: unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the number of calls that may be pending before the material
+	 * is flushed
+	 *
+	 * @return the limit, {@link Integer#MAX_VALUE} by default
+	 * @see #setLatencyLimit(long, TimeUnit, int)
+	 * @since 1.0.1
+	 */
+	public int getLatencyTokenLimit() {
+		return latencyTokens;
+	}
+
+	// BUDGET ------------------------------------
+
+	/**
+	 * Limit the time this Layouter may spend waiting for material to
+	 * determine whether blocks fit on a line.  Once the budget, counted
+	 * from this call, is used up, the Layouter stops waiting: any block
+	 * whose size is not yet known is broken, as if it were an inconsistent
+	 * block, and each break is broken only if the first material following
+	 * it does not fit on the rest of the line.  This is a cheap greedy
+	 * layout, like that of {@link GreedyLayouter}, used for the rest of
+	 * the output.  The output stays well-formed, but may be laid out worse
+	 * than it would have been otherwise.  See
+	 * {@link #getDegradedTokens()} for how much was affected.  The
+	 * clock is only read every few calls, so the budget may be
+	 * exceeded slightly.  The budget is cleared by {@link #reset(Backend)}.
+	 * 
+	 * @param budget
+	 *            the time budget
+	 * @param unit
+	 *            the unit of <code>budget</code>
+	 * @since 1.0.1
+	 */
+	public void setTimeBudget(long budget, TimeUnit unit) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("negative time budget");
+		}
+		this.deadline = System.nanoTime() + unit.toNanos(budget);
+		this.hasDeadline = true;
+		this.budgetChecks = 0;
+	}
+
+	/**
+	 * Make this Layouter stop waiting for material to determine whether
+	 * blocks fit on a line, and lay out the rest of the output greedily,
+	 * as described for {@link #setTimeBudget(long, TimeUnit)}.  Unlike
+	 * the other methods, this may be called from another thread, e.g.
+	 * when a request is abandoned.  The Layouter notices the call the next
+	 * time material is added.  This is cleared by {@link #reset(Backend)}.
+	 * 
+	 * @since 1.0.1
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether this Layouter has switched to greedy layout
+	 * because its time budget was used up or it was cancelled
+	 *
+	 * @return whether the layout is degraded
+	 * @see #setTimeBudget(long, TimeUnit)
+	 * @see #cancel()
+	 * @since 1.0.1
+	 */
+	public boolean isDegraded() {
+		return degraded;
+	}
+
+	/**
+	 * Gets the number of blocks and breaks which were laid out greedily,
+	 * without knowing their size, since this Layouter was created or
+	 * reset.  This is zero unless {@link #isDegraded()}.
+	 *
+	 * @return the number of degraded blocks and breaks
+	 * @since 1.0.1
+	 */
+	public int getDegradedTokens() {
+		return degradedTokens;
+	}
+
+	// WHITESPACE ------------------------------------
+
+	/**
+	 * Choose which spaces this Layouter leaves out at the ends of lines.
+	 * By default, with {@link TrailingSpaces#KEEP}, all spaces are
+	 * written.  With {@link TrailingSpaces#LAZY_INDENTATION}, the
+	 * indentation of a line is only written once text follows it, so
+	 * lines without text, and the end of the output after the last break,
+	 * stay empty.  With {@link TrailingSpaces#TRIM}, the spaces of
+	 * breaks and of {@link #ind(int, int)} at the end of a line are
+	 * also left out.  Line breaks are decided just the same in each
+	 * case, as if all spaces were written.  Spaces before a
+	 * {@link #mark(Object)} are always written.  This may be called at any
+	 * time, and is kept by {@link #reset(Backend)}.
+	 *
+	 * @param trailingSpaces
+	 *            which spaces to leave out
+	 * @since 1.0.1
+	 */
+	public void setTrailingSpaces(TrailingSpaces trailingSpaces) {
+		if (trailingSpaces == null) {
+			throw new NullPointerException("trailingSpaces");
+		}
+		this.trailingSpaces = trailingSpaces;
+		for (Output o : outputs) {
+			o.out.setTrailingSpaces(trailingSpaces);
+		}
+	}
+
+	/**
+	 * Returns which spaces are left out at the ends of lines
+	 *
+	 * @return which spaces are left out at the ends of lines
+	 * @see #setTrailingSpaces(TrailingSpaces)
+	 * @since 1.0.1
+	 */
+	public TrailingSpaces getTrailingSpaces() {
+		return trailingSpaces;
+	}
+
+	/**
+	 * Make this Layouter indent lines with tab characters.  The white
+	 * space at the start of each line is then written as tabs, each
+	 * standing for <code>tabWidth</code> columns, followed by spaces for
+	 * the rest.  Breaks are still decided by columns, so the layout is
+	 * the same as with spaces, and looks the same where tabs are shown
+	 * with this width.  Backends get to see the tabs in the text
+	 * printed at the start of a line, but are never asked to
+	 * {@link Backend#measure(String) measure} them.  With a
+	 * <code>tabWidth</code> of 0, the default, only spaces are used.
+	 * This may be called at any time, and is kept by
+	 * {@link #reset(Backend)}.
+	 *
+	 * @param tabWidth
+	 *            the number of columns per tab, or 0 to indent with spaces
+	 * @throws IllegalArgumentException
+	 *             if <code>tabWidth</code> is negative
+	 * @since 1.0.1
+	 */
+	public void setTabWidth(int tabWidth) {
+		if (tabWidth < 0) {
+			throw new IllegalArgumentException("negative tab width");
+		}
+		this.tabWidth = tabWidth;
+		for (Output o : outputs) {
+			o.out.setTabWidth(tabWidth);
+		}
+	}
+
+	/**
+	 * Returns the number of columns per tab of the indentation
+	 *
+	 * @return the number of columns per tab, or 0 if lines are indented
+	 *         with spaces
+	 * @see #setTabWidth(int)
+	 * @since 1.0.1
+	 */
+	public int getTabWidth() {
+		return tabWidth;
+	}
+
 	// PRIMITIVE STREAM OPERATIONS ------------------------------------
 
 	/**
@@ -441,19 +1054,164 @@ public class Layouter<Exc extends Exception> {
 
 		checkNotFinished();
 
+		int width = back.measure(s);
+		if (delimStack.isEmpty()) {
+			for (Output o : outputs) {
+				o.out.print(s, width);
+				o.totalOutput += width;
+			}
+			totalSize += width;
+		} else {
+			stream.add(TokenQueue.STRING, width, 0, 0, s);
+			totalSize += width;
+			advanceLeft();
+		}
+		return this;
+	}
+
+	/**
+	 * Output the characters of <code>s</code>, like {@link #print(String)}.
+	 * The characters are passed on to the backend as they are, unless
+	 * they have to be kept until their layout is known, in which case
+	 * they are copied, so <code>s</code> may be changed afterwards.
+	 * 
+	 * @param s
+	 *            the characters to print.
+	 * @return this
+	 * @since 1.0.1
+	 */
+	public Layouter<Exc> print(CharSequence s) throws Exc {
+		if (s instanceof String) {
+			return print((String) s);
+		}
+		LOG.trace("print: {}", s);
+
+		checkNotFinished();
+
+		int width = back.measure(s);
 		if (delimStack.isEmpty()) {
-			out.print(s);
-			totalSize += back.measure(s);
-			totalOutput += back.measure(s);
+			for (Output o : outputs) {
+				o.out.print(s, width);
+				o.totalOutput += width;
+			}
+			totalSize += width;
 		} else {
-			enqueue(new StringToken(s));
-			totalSize += back.measure(s);
+			stream.add(TokenQueue.STRING, width, 0, 0, s.toString());
+			totalSize += width;
+			advanceLeft();
+		}
+		return this;
+	}
 
-			while (totalSize - totalOutput > out.space()
-					&& !delimStack.isEmpty()) {
-				popBottom().setInfiniteSize();
-				advanceLeft();
+	/**
+	 * Output <code>len</code> characters of <code>buf</code>, starting at
+	 * <code>off</code>, like {@link #print(String)}.  The characters are
+	 * passed on to the backend as they are, unless they have to be kept
+	 * until their layout is known, in which case they are copied, so
+	 * <code>buf</code> may be reused afterwards.
+	 * 
+	 * @param buf
+	 *            the characters to print.
+	 * @param off
+	 *            the index of the first character
+	 * @param len
+	 *            the number of characters
+	 * @return this
+	 * @since 1.0.1
+	 */
+	public Layouter<Exc> print(char[] buf, int off, int len) throws Exc {
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("print: {}", new String(buf, off, len));
+		}
+
+		checkNotFinished();
+
+		int width = back.measure(buf, off, len);
+		if (delimStack.isEmpty()) {
+			for (Output o : outputs) {
+				o.out.print(buf, off, len, width);
+				o.totalOutput += width;
 			}
+			totalSize += width;
+		} else {
+			stream.add(width, buf, off, len);
+			totalSize += width;
+			advanceLeft();
+		}
+		return this;
+	}
+
+	/**
+	 * Output several pieces of text, one after the other, like calling
+	 * {@link #print(CharSequence)} for each of them, but with less
+	 * overhead.  If the text has to be kept until its layout is known, it
+	 * is kept as one piece, without concatenating the parts.  No line
+	 * breaks are inserted between the parts.
+	 * 
+	 * @param parts
+	 *            the texts to print.
+	 * @return this
+	 * @since 1.0.1
+	 */
+	public Layouter<Exc> printAll(CharSequence... parts) throws Exc {
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("printAll: {}", Arrays.asList(parts));
+		}
+
+		checkNotFinished();
+
+		int width = 0;
+		for (CharSequence s : parts) {
+			width += back.measure(s);
+		}
+		addParts(parts, width, true);
+		advanceLeft();
+		return this;
+	}
+
+	/**
+	 * Output the elements of <code>items</code>, separated by
+	 * <code>sep</code> and a break of width <code>brkWidth</code> and
+	 * zero offset.  Each element is printed as a String, as by
+	 * {@link String#valueOf(Object)}.  This is the same as
+	 * <pre>
+	 * print(a).print(sep).brk(brkWidth, 0).print(b) ...
+	 * </pre>
+	 * but with less overhead per element: each element is kept with the
+	 * following separator as one piece of text.  This does not begin or
+	 * end a block, so it is usually called between
+	 * {@link #begin(BreakConsistency, IndentationBase, int)} and
+	 * {@link #end()}.
+	 * 
+	 * @param items
+	 *            the elements to print
+	 * @param sep
+	 *            the separator printed after each element but the last
+	 * @param brkWidth
+	 *            the width of the break after each separator
+	 * @return this
+	 * @since 1.0.1
+	 */
+	public Layouter<Exc> printSeparated(Iterable<?> items, CharSequence sep,
+			int brkWidth) throws Exc {
+		LOG.trace("printSeparated: {}", items);
+
+		checkNotFinished();
+
+		String sepText = sep.toString();
+		int sepWidth = back.measure(sepText);
+		Iterator<?> it = items.iterator();
+		while (it.hasNext()) {
+			String item = String.valueOf(it.next());
+			int width = back.measure(item);
+			if (it.hasNext()) {
+				addParts(new String[] { item, sepText }, width + sepWidth,
+						false);
+				addBreak(brkWidth, 0);
+			} else {
+				addParts(new String[] { item }, width, false);
+			}
+			advanceLeft();
 		}
 		return this;
 	}
@@ -476,16 +1234,22 @@ public class Layouter<Exc extends Exception> {
 	 */
 	public Layouter<Exc> begin(BreakConsistency cons, 
 								 IndentationBase indBase, 
-								 int indent) {
+								 int indent) throws Exc {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("begin: {} {} {}", cons, indBase, Integer.valueOf(indent));
 		}
 
 		checkNotFinished();
 
-		StreamToken t = new OpenBlockToken(cons, indBase, indent);
-		enqueue(t);
-		push(t);
+		int kind = TokenQueue.OPEN_BLOCK;
+		if (cons == BreakConsistency.CONSISTENT) {
+			kind |= TokenQueue.CONSISTENT;
+		}
+		if (indBase == IndentationBase.FROM_IND) {
+			kind |= TokenQueue.FROM_IND;
+		}
+		delimStack.push(stream.add(kind, 0, indent, totalSize, null));
+		advanceLeft();
 		return this;
 	}
 
@@ -509,22 +1273,21 @@ public class Layouter<Exc extends Exception> {
 
 		if (delimStack.isEmpty()) {
 			/* then stream is also empty, so output */
-			out.closeBlock();
-		} else {
-			enqueue(new CloseBlockToken());
-
-			StreamToken topDelim = pop();
-			topDelim.setEnd();
-			if (topDelim.isBreakToken() && !delimStack.isEmpty()) {
-				/* This must be the matching OpenBlockToken */
-				StreamToken topOpen = pop();
-				topOpen.setEnd();
+			for (Output o : outputs) {
+				o.out.closeBlock();
 			}
+		} else {
+			stream.add(TokenQueue.CLOSE_BLOCK, 0, 0, 0, null);
 
-			if (delimStack.isEmpty()) {
-				/* preserve invariant */
-				advanceLeft();
+			int topDelim = delimStack.pop();
+			setEnd(topDelim);
+			if (stream.kind(topDelim) == TokenQueue.BREAK
+					&& !delimStack.isEmpty()) {
+				/* This must be the matching OPEN_BLOCK token */
+				setEnd(delimStack.pop());
 			}
+
+			advanceLeft();
 		}
 		return this;
 	}
@@ -548,18 +1311,8 @@ public class Layouter<Exc extends Exception> {
 
 		checkNotFinished();
 
-		if (!delimStack.isEmpty()) {
-			StreamToken s = top();
-			if (s.isBreakToken()) {
-				pop();
-				s.setEnd();
-			}
-		}
-
-		StreamToken t = new BreakToken(width, offset);
-		enqueue(t);
-		push(t);
-		totalSize += width;
+		addBreak(width, offset);
+		advanceLeft();
 		return this;
 	}
 
@@ -585,12 +1338,15 @@ public class Layouter<Exc extends Exception> {
 		checkNotFinished();
 
 		if (delimStack.isEmpty()) {
-			out.indent(width, offset);
+			for (Output o : outputs) {
+				o.out.indent(width, offset);
+				o.totalOutput += width;
+			}
 			totalSize += width;
-			totalOutput += width;
 		} else {
-			enqueue(new IndentationToken(width, offset));
+			stream.add(TokenQueue.INDENTATION, width, offset, 0, null);
 			totalSize += width;
+			advanceLeft();
 		}
 		return this;
 	}
@@ -616,9 +1372,12 @@ public class Layouter<Exc extends Exception> {
 		checkNotFinished();
 
 		if (delimStack.isEmpty()) {
-			out.mark(o);
+			for (Output output : outputs) {
+				output.out.mark(o);
+			}
 		} else {
-			enqueue(new MarkToken(o));
+			stream.add(TokenQueue.MARK, 0, 0, 0, o);
+			advanceLeft();
 		}
 		return this;
 	}
@@ -638,7 +1397,9 @@ public class Layouter<Exc extends Exception> {
 
 		checkNotFinished();
 
-		out.flush();
+		for (Output o : outputs) {
+			o.out.flush();
+		}
 		return this;
 	}
 
@@ -669,7 +1430,10 @@ public class Layouter<Exc extends Exception> {
 			finish();
 		}
 
-		out.close();
+		stream.close();
+		for (Output o : outputs) {
+			o.out.close();
+		}
 	}
 
 	/**
@@ -690,6 +1454,9 @@ public class Layouter<Exc extends Exception> {
 				throw new UnbalancedBlocksException();
 			} else {
 				advanceLeft();
+				for (Output o : outputs) {
+					o.out.finish();
+				}
 			}
 		} finally {
 			this.finished = true;
@@ -711,7 +1478,7 @@ public class Layouter<Exc extends Exception> {
 	 *            increment to indentation level
 	 * @return this
 	 */
-	public Layouter<Exc> begin(boolean consistent, int indent) {
+	public Layouter<Exc> begin(boolean consistent, int indent) throws Exc {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace(
 				"begin: {} {}",
@@ -729,7 +1496,7 @@ public class Layouter<Exc extends Exception> {
 	 * 
 	 * @return this
 	 */
-	public Layouter<Exc> beginI() {
+	public Layouter<Exc> beginI() throws Exc {
 		return begin(BreakConsistency.INCONSISTENT,  IndentationBase.FROM_POS, defaultInd);
 	}
 
@@ -739,7 +1506,7 @@ public class Layouter<Exc extends Exception> {
 	 * 
 	 * @return this
 	 */
-	public Layouter<Exc> beginC() {
+	public Layouter<Exc> beginC() throws Exc {
 		return begin(BreakConsistency.CONSISTENT, IndentationBase.FROM_POS, defaultInd);
 	}
 
@@ -751,7 +1518,7 @@ public class Layouter<Exc extends Exception> {
 	 *            the indentation for this block
 	 * @return this
 	 */
-	public Layouter<Exc> beginI(int indent) {
+	public Layouter<Exc> beginI(int indent) throws Exc {
 		return begin(BreakConsistency.INCONSISTENT,  IndentationBase.FROM_POS, indent);
 	}
 
@@ -763,7 +1530,7 @@ public class Layouter<Exc extends Exception> {
 	 *            the indentation for this block
 	 * @return this
 	 */
-	public Layouter<Exc> beginC(int indent) {
+	public Layouter<Exc> beginC(int indent) throws Exc {
 		return begin(BreakConsistency.CONSISTENT, IndentationBase.FROM_POS, indent);
 	}
 
@@ -777,7 +1544,7 @@ public class Layouter<Exc extends Exception> {
 	 *            <code>true</code> for consistent block
 	 * @return this
 	 */
-	public Layouter<Exc> begin(boolean consistent) {
+	public Layouter<Exc> begin(boolean consistent) throws Exc {
 		return begin(consistent,defaultInd);
 	}
 
@@ -788,7 +1555,7 @@ public class Layouter<Exc extends Exception> {
 	 * 
 	 * @return this
 	 */
-	public Layouter<Exc> beginIInd() {
+	public Layouter<Exc> beginIInd() throws Exc {
 		return begin(BreakConsistency.INCONSISTENT, IndentationBase.FROM_IND, defaultInd);
 	}
 
@@ -799,7 +1566,7 @@ public class Layouter<Exc extends Exception> {
 	 * 
 	 * @return this
 	 */
-	public Layouter<Exc> beginCInd() {
+	public Layouter<Exc> beginCInd() throws Exc {
 		return begin(BreakConsistency.CONSISTENT, IndentationBase.FROM_IND, defaultInd);
 	}
 
@@ -812,7 +1579,7 @@ public class Layouter<Exc extends Exception> {
 	 *            the indentation for this block
 	 * @return this
 	 */
-	public Layouter<Exc> beginIInd(int indent) {
+	public Layouter<Exc> beginIInd(int indent) throws Exc {
 		return begin(BreakConsistency.INCONSISTENT, IndentationBase.FROM_IND, indent);
 	}
 
@@ -825,7 +1592,7 @@ public class Layouter<Exc extends Exception> {
 	 *            the indentation for this block
 	 * @return this
 	 */
-	public Layouter<Exc> beginCInd(int indent) {
+	public Layouter<Exc> beginCInd(int indent) throws Exc {
 		return begin(BreakConsistency.CONSISTENT, IndentationBase.FROM_IND, indent);
 	}
 
@@ -851,13 +1618,36 @@ public class Layouter<Exc extends Exception> {
 	}
 
 	/**
-	 * Print a break with zero offset and large width. As the large number of
-	 * spaces will never fit into one line, this amounts to a forced line break.
+	 * Print a forced line break, with zero offset.  None of the blocks
+	 * around it fit on a line then, nor does the material between
+	 * any of their breaks that contains it.  This is known at once, so
+	 * all pending material up to the line break is sent to the backend.
 	 * 
 	 * @return this
 	 */
 	public Layouter<Exc> nl() throws Exc {
-		return brk(largeSize);
+		LOG.trace("nl");
+
+		checkNotFinished();
+
+		if (delimStack.isEmpty()) {
+			for (Output o : outputs) {
+				o.out.printBreak(0, 0, INFINITE_SIZE);
+			}
+		} else {
+			int s = delimStack.top();
+			if (stream.kind(s) == TokenQueue.BREAK) {
+				delimStack.pop();
+				setEnd(s);
+			}
+			stream.add(TokenQueue.NEWLINE, 0, 0, totalSize, null);
+			/* every pending delimiter contains the newline */
+			while (!delimStack.isEmpty()) {
+				stream.setEnd(delimStack.pop(), Long.MAX_VALUE);
+			}
+			advanceLeft();
+		}
+		return this;
 	}
 
 	/**
@@ -901,272 +1691,314 @@ public class Layouter<Exc extends Exception> {
 
 	// PRIVATE METHODS -----------------------------------------------
 
-	/* Delimiter Stack handling */
-
-	/** Push an OpenBlockToken or BreakToken onto the delimStack */
-	private void push(StreamToken t) {
-		delimStack.add(t);
-	}
-
-	/** Pop the topmost Token from the delimStack */
-	private StreamToken pop() {
-		try {
-			return (StreamToken) (delimStack.remove(delimStack.size() - 1));
-		} catch (IndexOutOfBoundsException e) {
-			throw new UnbalancedBlocksException();
-		}
-	}
+	/* stream handling */
 
 	/**
-	 * Remove and return the token from the <em>bottom</em> of the delimStack
+	 * Send text in several parts with the given total width to the
+	 * outputs, or add it to the stream if material is pending.  In the
+	 * latter case, the parts are copied to a new array of Strings if
+	 * <code>copy</code> is set, and otherwise <code>parts</code> must be
+	 * such an array, which is kept.  The caller has to call
+	 * {@link #advanceLeft()} afterwards.
 	 */
-	private StreamToken popBottom() {
-		try {
-			return (StreamToken) (delimStack.remove(0));
-		} catch (IndexOutOfBoundsException e) {
-			throw new UnbalancedBlocksException();
+	private void addParts(CharSequence[] parts, int width, boolean copy)
+			throws Exc {
+		if (delimStack.isEmpty()) {
+			for (Output o : outputs) {
+				o.out.print(parts, width);
+				o.totalOutput += width;
+			}
+		} else if (copy) {
+			String[] text = new String[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				text[i] = parts[i].toString();
+			}
+			stream.add(TokenQueue.PARTS, width, 0, 0, text);
+		} else {
+			stream.add(TokenQueue.PARTS, width, 0, 0, parts);
 		}
+		totalSize += width;
 	}
 
-	/** Return the top of the delimStack, without popping it. */
-	private StreamToken top() {
-		try {
-			return (StreamToken) delimStack.get(delimStack.size() - 1);
-		} catch (IndexOutOfBoundsException e) {
-			throw new UnbalancedBlocksException();
+	/**
+	 * Add a BREAK token to the stream, and set the end of the previous
+	 * break in the same block.  The caller has to call
+	 * {@link #advanceLeft()} afterwards.
+	 */
+	private void addBreak(int width, int offset) {
+		if (!delimStack.isEmpty()) {
+			int s = delimStack.top();
+			if (stream.kind(s) == TokenQueue.BREAK) {
+				delimStack.pop();
+				setEnd(s);
+			}
 		}
-	}
-
-	/* stream handling */
 
-	/** Put a StreamToken into the stream (at the end). */
-	private void enqueue(StreamToken t) {
-		stream.add(t);
+		delimStack.push(stream.add(TokenQueue.BREAK, width, offset,
+				totalSize, null));
+		totalSize += width;
 	}
 
 	/**
-	 * Send tokens from <code>stream<code> to <code>out</code> as long
-	 * as there are tokens left and their size is known.
+	 * Returns whether the `following size' of token <code>t</code> is
+	 * already known.  For an OPEN_BLOCK token, this is the size of the
+	 * whole block, if it is not broken.  For a BREAK token, it is the size
+	 * of the material up to the next corresponding BREAK or CLOSE_BLOCK
+	 * token.  This is known once that next token has been encountered.
+	 * For other tokens, it is the same as their size, and always known.
 	 */
-	private void advanceLeft() throws Exc {
-		StreamToken t;
-		while (!stream.isEmpty()
-				&& ((t = (StreamToken) stream.get(0)).followingSizeKnown())) {
-			t.print();
-			stream.remove(0);
-			totalOutput += t.size();
+	private boolean followingSizeKnown(int t) {
+		switch (stream.kind(t)) {
+		case TokenQueue.BREAK:
+		case TokenQueue.OPEN_BLOCK:
+			return stream.end(t) >= 0;
+		default:
+			return true;
 		}
 	}
 
-	// STREAM TOKEN CLASSES -----------------------------------------
-
 	/**
-	 * A stream token.
+	 * Indicate that the corresponding next BREAK or CLOSE_BLOCK token of
+	 * <code>t</code> has been encountered.
 	 */
-	private abstract class StreamToken {
-		/** Send this token to the Printer {@link #out}. */
-		abstract void print() throws Exc;
-
-		/** Return the size of this token if the block is not broken. */
-		abstract int size();
-
-		/**
-		 * Return the `section' size. For an OpenBlockToken, this is the size of
-		 * the whole block, if it is not broken. For a BreakToken, it is the
-		 * size of the material up to the next corresponding BreakToken or
-		 * CloseBlockToken. Otherwise it is the same as size(). This might only
-		 * be known after several more tokens have been read. If the value is
-		 * guaranteed to be larger than what fits on a line, some large value
-		 * might be returned instead of the precise size.
-		 */
-		
-		/* This is actually called only in classes under SizeCalculatingToken, which
-		 * overrides it.  But it's nicer to think of it in conjunction with 
-		 * followingSizeKnown() below.*/
-		@SuppressWarnings("unused")
-		int followingSize() {
-			return size();
-		}
-
-		/**
-		 * Returns whether the followingSize is already known. That is the case
-		 * if either a corresponding next BreakToken or CloseBlockToken has been
-		 * encountered, or if the material is known not to fit on a line.
-		 */
-		boolean followingSizeKnown() {
-			return true;
-		}
-
-		/**
-		 * Indicate that the corresponding next BreakToken or CloseBlockToken
-		 * has been encountered. After this, followingSizeKnown() will return
-		 * the correct value.
-		 */
-		void setEnd() {
-			throw new UnsupportedOperationException();
-		}
-
-		/**
-		 * Indicate that the followingSize is guaranteed to be larger than the
-		 * line width, and that it can thus be set to some large value.
-		 */
-		void setInfiniteSize() {
-			throw new UnsupportedOperationException();
-		}
-
-		/**
-		 * Returns whether this is a <code>BreakToken</code>. It returns
-		 * <code>false</code>, and is overriden by <code>BreakToken</code>
-		 * to return true.
-		 */
-		boolean isBreakToken() {
-			return false;
-		}
+	private void setEnd(int t) {
+		stream.setEnd(t, totalSize);
 	}
 
-	/** A token corresponding to a <code>print</code> call. */
-	private class StringToken extends StreamToken {
-		String s;
-
-		StringToken(String s) {
-			this.s = s;
-		}
-
-		void print() throws Exc {
-			out.print(s);
-		}
-
-		int size() {
-			return back.measure(s);
+	/**
+	 * Send tokens from <code>stream<code> to the outputs as long
+	 * as there are tokens left and their size is known, or the material
+	 * they start is known not to fit on the rest of the line.  Then remove
+	 * the tokens that have been sent to all outputs from the stream.  If
+	 * the latency limit is exceeded, send all tokens and flush.
+	 */
+	private void advanceLeft() throws Exc {
+		if (!degraded && budgetExhausted()) {
+			LOG.debug("layout budget exhausted, continuing greedily");
+			degraded = true;
+			degradedNext = stream.first();
 		}
-	}
-
-	/** A token corresponding to an <code>ind</code> call. */
-	private class IndentationToken extends StreamToken {
-		protected int width;
+		boolean commit = latencyExceeded();
+		while (true) {
+			int first = stream.first();
+			int sent = stream.size();
+			long output = totalSize;
+			for (Output o : outputs) {
+				o.advance();
+				sent = Math.min(sent, o.next - first);
+				output = Math.min(output, o.totalOutput);
+			}
+			for (; sent > 0; sent--) {
+				stream.removeFirst();
+			}
+			first = stream.first();
+			while (!delimStack.isEmpty() && delimStack.bottom() - first < 0) {
+				delimStack.popBottom();
+			}
 
-		protected int offset;
+			long size = totalSize - output;
+			if (stream.isEmpty()
+					|| !commit && stream.size() <= maxLookaheadTokens
+						&& size <= maxLookaheadSize) {
+				peakLookaheadTokens = Math.max(peakLookaheadTokens,
+						stream.size());
+				peakLookaheadSize = (int) Math.max(peakLookaheadSize,
+						Math.min(size, Integer.MAX_VALUE));
+				break;
+			}
 
-		IndentationToken(int width, int offset) {
-			this.width = width;
-			this.offset = offset;
+			/* over the limit: break the oldest pending delimiter */
+			for (Output o : outputs) {
+				if (o.next == first) {
+					o.send(first, INFINITE_SIZE);
+				}
+			}
 		}
-
-		void print() throws Exc {
-			out.indent(width, offset);
+		if (stream.isEmpty()) {
+			pendingTimed = false;
 		}
-
-		int size() {
-			return width;
+		if (commit) {
+			for (Output o : outputs) {
+				o.out.flush();
+			}
 		}
 	}
 
-	/** Superclass of tokens which calculate their followingSize. */
-	private abstract class SizeCalculatingToken extends StreamToken {
-		protected int begin = 0;
-
-		/** negative means that end has not been set yet. */
-		protected int end = -1;
-
-		SizeCalculatingToken() {
-			begin = totalSize;
-		}
-
-		int followingSize() {
-			return end - begin;
+	/**
+	 * Returns whether the pending material has exceeded the latency
+	 * limit.  Starts timing if material has just become pending.
+	 */
+	private boolean latencyExceeded() {
+		if (stream.size() > latencyTokens) {
+			return true;
 		}
-
-		boolean followingSizeKnown() {
-			return end >= 0;
+		if (latencyNanos == Long.MAX_VALUE) {
+			return false;
 		}
-
-		void setEnd() {
-			this.end = totalSize;
-		}
-
-		void setInfiniteSize() {
-			end = begin + largeSize;
+		long now = System.nanoTime();
+		if (!pendingTimed) {
+			pendingTimed = true;
+			pendingSince = now;
+			return latencyNanos == 0;
 		}
+		return now - pendingSince > latencyNanos;
 	}
 
-	/** A token corresponding to a <code>brk</code> call. */
-	private class BreakToken extends SizeCalculatingToken {
-		protected int width;
-
-		protected int offset;
-
-		BreakToken(int width, int offset) {
-			this.width = width;
-			this.offset = offset;
-		}
-
-		int size() {
-			return width;
-		}
-
-		void print() throws Exc {
-			out.printBreak(width, offset, followingSize());
-		}
-
-		boolean isBreakToken() {
+	/**
+	 * Returns whether the layout was cancelled or its time budget is used
+	 * up.  The clock is read every {@link #BUDGET_CHECK_INTERVAL} calls.
+	 */
+	private boolean budgetExhausted() {
+		if (cancelled) {
 			return true;
 		}
-	}
-
-	/** A token corresponding to a <code>begin</code> call. */
-	private class OpenBlockToken extends SizeCalculatingToken {
-		protected BreakConsistency cons;
-
-		protected IndentationBase indBase;
-
-		protected int indent;
-		
-		OpenBlockToken(BreakConsistency consistent, IndentationBase fromPos, int indent) {
-			this.cons = consistent;
-			this.indBase = fromPos;
-			this.indent = indent;
+		if (hasDeadline && ++budgetChecks >= BUDGET_CHECK_INTERVAL) {
+			budgetChecks = 0;
+			return System.nanoTime() - deadline >= 0;
 		}
+		return false;
+	}
 
-		int size() {
-			return 0;
-		}
+	/** Return <code>size</code>, or {@link #INFINITE_SIZE} if it is
+	 * larger.  Any such size is larger than the space on a line. */
+	private static int clamp(long size) {
+		return (int) Math.min(size, INFINITE_SIZE);
+	}
 
-		void print() throws Exc {
-			out.openBlock(cons,indBase, 
-						  indent, followingSize());
+	/** Send token <code>t</code> to the Printer <code>out</code>. */
+	private void printToken(Printer<Exc> out, int t, int followingSize)
+			throws Exc {
+		switch (stream.kind(t)) {
+		case TokenQueue.STRING:
+			out.print((String) stream.object(t), stream.width(t));
+			break;
+		case TokenQueue.INDENTATION:
+			out.indent(stream.width(t), stream.offset(t));
+			break;
+		case TokenQueue.BREAK:
+			out.printBreak(stream.width(t), stream.offset(t), followingSize);
+			break;
+		case TokenQueue.OPEN_BLOCK:
+			out.openBlock(
+					stream.isConsistent(t) ? BreakConsistency.CONSISTENT
+							: BreakConsistency.INCONSISTENT,
+					stream.isFromInd(t) ? IndentationBase.FROM_IND
+							: IndentationBase.FROM_POS,
+					stream.offset(t), followingSize);
+			break;
+		case TokenQueue.CLOSE_BLOCK:
+			out.closeBlock();
+			break;
+		case TokenQueue.PARTS:
+			out.print((String[]) stream.object(t), stream.width(t));
+			break;
+		case TokenQueue.NEWLINE:
+			out.printBreak(0, 0, INFINITE_SIZE);
+			break;
+		case TokenQueue.MARK:
+			out.mark(stream.object(t));
+			break;
+		default:
+			throw new IllegalStateException("unknown token kind");
 		}
 	}
 
-	/** A token corresponding to an <code>end</code> call. */
-	private class CloseBlockToken extends StreamToken {
+	/**
+	 * The state of sending the stream to one backend.
+	 */
+	private final class Output {
+		/** The Printer used for output. */
+		final Printer<Exc> out;
 
-		CloseBlockToken() {
-		}
+		/** The sequence number of the next token to send to out. */
+		int next;
 
-		void print() throws Exc {
-			out.closeBlock();
+		/**
+		 * Total size of strings and blanks sent to the Printer
+		 * <code>out</code>. Subtract this from <code>totalSize</code> and
+		 * you get the space needed to print what is still buffered in
+		 * <code>stream</code> for this output.
+		 */
+		long totalOutput;
+
+		Output(Backend<Exc> back) {
+			out = new Printer<Exc>(back);
+			out.setTrailingSpaces(trailingSpaces);
+			out.setTabWidth(tabWidth);
+			out.setLineBuffered(!hasLatencyLimit());
+			next = stream.next();
 		}
 
-		int size() {
-			return 0;
+		void reset(Backend<Exc> back) {
+			out.reset(back);
+			next = stream.next();
+			totalOutput = 0;
 		}
 
-	}
-
-	/** A token corresponding to a <code>mark</code> call. */
-	private class MarkToken extends StreamToken {
-		protected Object o;
-
-		MarkToken(Object o) {
-			this.o = o;
+		/**
+		 * Send tokens to out as long as their following size is known.  If
+		 * the following size of the next token is not known, but the
+		 * material buffered for this output already exceeds the space left
+		 * on the line, the token is sent with {@link #INFINITE_SIZE}.  This
+		 * makes the same decision as waiting for the size would, since
+		 * the buffered material starts with that token.  Once the layout is
+		 * degraded, tokens are not kept waiting for their size, see
+		 * {@link #sendGreedy(int)}.
+		 */
+		void advance() throws Exc {
+			int end = stream.next();
+			while (next != end) {
+				int t = next;
+				int followingSize;
+				if (followingSizeKnown(t)) {
+					followingSize = clamp(stream.end(t) - stream.begin(t));
+				} else if (totalSize - totalOutput > out.space()) {
+					followingSize = INFINITE_SIZE;
+				} else if (degraded) {
+					if (!sendGreedy(t)) {
+						return;
+					}
+					continue;
+				} else {
+					return;
+				}
+				send(t, followingSize);
+			}
 		}
 
-		int size() {
-			return 0;
+		/**
+		 * Send the next token <code>t</code>, whose following size is
+		 * not known, to out without waiting for it.  A block is broken,
+		 * but inconsistently.  A break waits until material follows it,
+		 * and is broken if that does not fit.  Returns whether the token
+		 * was sent.
+		 */
+		boolean sendGreedy(int t) throws Exc {
+			if (stream.kind(t) == TokenQueue.BREAK) {
+				long following = totalSize - totalOutput;
+				if (following <= stream.width(t)) {
+					return false;
+				}
+				send(t, clamp(following));
+			} else {
+				out.openBlock(BreakConsistency.INCONSISTENT,
+						stream.isFromInd(t) ? IndentationBase.FROM_IND
+								: IndentationBase.FROM_POS,
+						stream.offset(t), INFINITE_SIZE);
+				next++;
+			}
+			if (t - degradedNext >= 0) {
+				degradedNext = t + 1;
+				degradedTokens++;
+			}
+			return true;
 		}
 
-		void print() throws Exc {
-			out.mark(o);
+		/** Send the next token <code>t</code> to out. */
+		void send(int t, int followingSize) throws Exc {
+			printToken(out, t, followingSize);
+			totalOutput += stream.width(t);
+			next++;
 		}
 	}
 
@@ -0,0 +1,145 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** An immutable description of how to lay out documents: the line
+ * width, the default indentation, a {@link BackendFactory} which
+ * creates the backend for each document, and whether to lay out
+ * greedily with a {@link GreedyLayouter}.  A configuration may be shared
+ * freely between threads; it is used by {@link LayouterPool} to create
+ * and reset its Layouters.
+ *
+ * @param <Exc> The type of exceptions that might be thrown by the backends.
+ *
+ * @since 1.0.1
+ */
+public final class LayouterConfig<Exc extends Exception> {
+
+	private final int lineWidth;
+	private final int indentation;
+	private final BackendFactory<Exc> backendFactory;
+	private final boolean greedy;
+
+	/** Create a new configuration.
+	 *
+	 * @param lineWidth the maximum line width
+	 * @param indentation the default indentation
+	 * @param backendFactory the factory for the backends
+	 */
+	public LayouterConfig(int lineWidth, int indentation,
+			BackendFactory<Exc> backendFactory) {
+		this(lineWidth, indentation, backendFactory, false);
+	}
+
+	/** Create a new configuration.
+	 *
+	 * @param lineWidth the maximum line width
+	 * @param indentation the default indentation
+	 * @param backendFactory the factory for the backends
+	 * @param greedy whether to create {@link GreedyLayouter}s
+	 */
+	public LayouterConfig(int lineWidth, int indentation,
+			BackendFactory<Exc> backendFactory, boolean greedy) {
+		if (backendFactory == null) {
+			throw new NullPointerException("backendFactory");
+		}
+		this.lineWidth = lineWidth;
+		this.indentation = indentation;
+		this.backendFactory = backendFactory;
+		this.greedy = greedy;
+	}
+
+	/** Create a configuration with {@link Layouter#DEFAULT_LINE_WIDTH} and
+	 * {@link Layouter#DEFAULT_INDENTATION}.
+	 *
+	 * @param backendFactory the factory for the backends
+	 */
+	public LayouterConfig(BackendFactory<Exc> backendFactory) {
+		this(Layouter.DEFAULT_LINE_WIDTH, Layouter.DEFAULT_INDENTATION,
+				backendFactory);
+	}
+
+	/** @return the maximum line width */
+	public int getLineWidth() {
+		return lineWidth;
+	}
+
+	/** @return the default indentation */
+	public int getIndentation() {
+		return indentation;
+	}
+
+	/** @return the factory for the backends */
+	public BackendFactory<Exc> getBackendFactory() {
+		return backendFactory;
+	}
+
+	/** @return whether {@link GreedyLayouter}s are created */
+	public boolean isGreedy() {
+		return greedy;
+	}
+
+	/** Create a new backend with this configuration's line width.
+	 * @return a new backend
+	 */
+	public Backend<Exc> createBackend() {
+		return backendFactory.createBackend(lineWidth);
+	}
+
+	/** Create a new Layouter writing to a new backend.
+	 * @return a new Layouter, a {@link GreedyLayouter} if
+	 *         {@link #isGreedy()}
+	 */
+	public Layouter<Exc> createLayouter() {
+		if (greedy) {
+			return new GreedyLayouter<Exc>(createBackend(), indentation);
+		}
+		return new Layouter<Exc>(createBackend(), indentation);
+	}
+
+	/** Create a new DataLayouter writing to a new backend.
+	 * @return a new DataLayouter, a {@link GreedyLayouter} if
+	 *         {@link #isGreedy()}
+	 */
+	public DataLayouter<Exc> createDataLayouter() {
+		return createDataLayouter(createBackend());
+	}
+
+	/** Create a new DataLayouter writing to the given backend.
+	 * @param back the backend to write to
+	 * @return a new DataLayouter, a {@link GreedyLayouter} if
+	 *         {@link #isGreedy()}
+	 */
+	public DataLayouter<Exc> createDataLayouter(Backend<Exc> back) {
+		if (greedy) {
+			return new GreedyLayouter<Exc>(back, indentation);
+		}
+		return new DataLayouter<Exc>(back, indentation);
+	}
+}
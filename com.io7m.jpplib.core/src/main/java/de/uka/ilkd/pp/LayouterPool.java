@@ -0,0 +1,156 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** A thread-safe pool of reusable {@link DataLayouter}s.  Formatting many
+ * small documents with a fresh Layouter each time allocates the
+ * Layouter's buffers over and over again.  Instead, a Layouter may be
+ * taken from the pool with {@link #acquire()}, used for one document,
+ * and given back with {@link #release(DataLayouter)}, after which it is
+ * {@linkplain Layouter#reset(Backend) reset} for the next document.
+ * Settings such as {@link Layouter#setTabWidth(int)} or
+ * {@link Layouter#setLookaheadLimit(int, int)} made by one user are
+ * undone before the Layouter is handed out again.
+ * The Layouters are created by the pool's {@link LayouterConfig}, so
+ * they are {@link GreedyLayouter}s if the configuration says so.
+ *
+ * <p>Every Layouter handed out is used by one thread at a time only, so
+ * no further synchronization is necessary.  The pool itself only holds
+ * a lock for the duration of taking or returning an instance, and never
+ * while a Layouter is in use, so it may be used from any number of
+ * platform or virtual threads.  A Layouter must not be used any more
+ * after it was released.
+ *
+ * <p>A typical use looks like this:
+ * <pre>
+ * DataLayouter&lt;NoExceptions&gt; l = pool.acquire();
+ * try {
+ *   l.print(o).close();
+ *   result = ((StringBackend) l.getBackend()).getString();
+ * } finally {
+ *   pool.release(l);
+ * }
+ * </pre>
+ *
+ * @param <Exc> The type of exceptions that might be thrown by the backends.
+ *
+ * @since 1.0.1
+ */
+public final class LayouterPool<Exc extends Exception> {
+
+	private final LayouterConfig<Exc> config;
+
+	/** The idle Layouters, used as a stack.  Guarded by <code>this</code>. */
+	private final DataLayouter<Exc>[] idle;
+
+	/** The number of idle Layouters.  Guarded by <code>this</code>. */
+	private int idleCount = 0;
+
+	/** Create a pool keeping at most twice as many idle Layouters as
+	 * there are processors.
+	 *
+	 * @param config the configuration for the Layouters
+	 */
+	public LayouterPool(LayouterConfig<Exc> config) {
+		this(config, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Create a pool.
+	 *
+	 * @param config the configuration for the Layouters
+	 * @param maxIdle the maximum number of idle Layouters kept for reuse
+	 */
+	public LayouterPool(LayouterConfig<Exc> config, int maxIdle) {
+		if (config == null) {
+			throw new NullPointerException("config");
+		}
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle must be non-negative");
+		}
+		this.config = config;
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		DataLayouter<Exc>[] idle = new DataLayouter[maxIdle];
+		this.idle = idle;
+	}
+
+	/** @return the configuration of the Layouters in this pool */
+	public LayouterConfig<Exc> getConfig() {
+		return config;
+	}
+
+	/** Get a Layouter writing to a new backend created by the
+	 * configuration's {@link BackendFactory}.
+	 *
+	 * @return a Layouter ready for a new document
+	 */
+	public DataLayouter<Exc> acquire() {
+		return acquire(config.createBackend());
+	}
+
+	/** Get a Layouter writing to the given backend.  This may be used to
+	 * reuse backends as well.
+	 *
+	 * @param back the backend to write to
+	 * @return a Layouter ready for a new document
+	 */
+	public DataLayouter<Exc> acquire(Backend<Exc> back) {
+		DataLayouter<Exc> l = null;
+		synchronized (this) {
+			if (idleCount > 0) {
+				l = idle[--idleCount];
+				idle[idleCount] = null;
+			}
+		}
+		if (l == null) {
+			return config.createDataLayouter(back);
+		}
+		l.reset(back);
+		l.restoreDefaults();
+		return l;
+	}
+
+	/** Give a Layouter back to the pool.  It will not be closed, so the
+	 * caller should close or finish it first if the output is needed.  If
+	 * the pool is full, the Layouter is dropped.
+	 *
+	 * @param l a Layouter obtained from {@link #acquire()}
+	 */
+	public void release(DataLayouter<Exc> l) {
+		synchronized (this) {
+			if (idleCount < idle.length) {
+				idle[idleCount++] = l;
+			}
+		}
+	}
+
+	/** @return the number of idle Layouters currently kept for reuse */
+	public synchronized int idleCount() {
+		return idleCount;
+	}
+}
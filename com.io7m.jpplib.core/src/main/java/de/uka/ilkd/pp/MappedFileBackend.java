@@ -0,0 +1,143 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A {@link Utf8StreamBackend} which writes its output to a file
+ * through memory mappings instead of a stream.  The file is mapped in
+ * windows of a fixed size, and the output is encoded straight into
+ * them, one after the other, so writing needs neither a system call
+ * nor a copy per block.  A new window is mapped when the previous one
+ * is full, extending the file.  On {@link #close()}, the file is
+ * truncated to the exact length of the output.
+ *
+ * <p>The mapped windows are released by the garbage collector, as
+ * Java offers no way to unmap them explicitly.  The output is in the
+ * mapping, where other readers of the file can see it, as soon as it
+ * is written, so {@link #flush()} does nothing.  The output is not
+ * forced to the disk.
+ *
+ * <p>Since the windows are only unmapped by the garbage collector, the
+ * last one may still be mapped when {@link #close()} truncates the
+ * file.  Some platforms, notably Windows, do not allow a file to be
+ * truncated while a region of it is mapped; there, the truncation
+ * fails with an {@link IOException}, and the file keeps the length of
+ * its last window, padded with zero bytes.
+ *
+ * @since 1.0.1
+ */
+public class MappedFileBackend extends Utf8StreamBackend {
+
+	/** The default size of the mapped windows, 64 MiB */
+	public static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long windowSize;
+
+	/** The position in the file of the current window */
+	private long windowStart = 0;
+
+	/** Create a new MappedFileBackend with windows of
+	 * {@link #DEFAULT_WINDOW_SIZE} bytes.  The file is created, or
+	 * truncated if it exists.
+	 * @param file the file to write to
+	 * @param lineWidth the maximum line width
+	 * @throws IOException if the file cannot be opened
+	 */
+	public MappedFileBackend(Path file, int lineWidth) throws IOException {
+		this(file, lineWidth, DEFAULT_WINDOW_SIZE);
+	}
+
+	/** Create a new MappedFileBackend.  The file is created, or
+	 * truncated if it exists.
+	 * @param file the file to write to
+	 * @param lineWidth the maximum line width
+	 * @param windowSize the number of bytes mapped at a time, at least 4
+	 *        and at most {@link Integer#MAX_VALUE}
+	 * @throws IOException if the file cannot be opened
+	 * @throws IllegalArgumentException if <code>windowSize</code> is too
+	 *         small or too large
+	 */
+	public MappedFileBackend(Path file, int lineWidth, long windowSize)
+			throws IOException {
+		super(lineWidth);
+		if (windowSize < 4 || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("window size");
+		}
+		this.windowSize = windowSize;
+		this.channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/** Returns the number of bytes written so far.  This is the length
+	 * of the file once this backend is closed. */
+	public long length() {
+		return windowStart + (buf == null ? 0 : buf.position());
+	}
+
+	/** Map the next window, starting at the end of the output. */
+	@Override
+	ByteBuffer next(ByteBuffer full) throws IOException {
+		if (full != null) {
+			windowStart += full.position();
+			buf = null;
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, windowStart,
+				windowSize);
+	}
+
+	/** Does nothing, as the output is in the mapping already */
+	@Override
+	public void flush() {
+		return;
+	}
+
+	/** Closes this backend, truncating the file to the length of the
+	 * output.  The reference to the last window is dropped first, but
+	 * the window stays mapped until it is garbage collected; see the
+	 * class comment.
+	 * @throws IOException if the file cannot be truncated or closed */
+	@Override
+	public void close() throws IOException {
+		windowStart = length();
+		buf = null;
+		try {
+			channel.truncate(windowStart);
+		} finally {
+			channel.close();
+		}
+	}
+}
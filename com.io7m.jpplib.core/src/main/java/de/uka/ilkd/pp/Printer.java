@@ -31,10 +31,21 @@ package de.uka.ilkd.pp;
 import static de.uka.ilkd.pp.IndentationStack.*;
 import static de.uka.ilkd.pp.IndentationStack.BreakDecision.*;
 
+import java.util.Arrays;
+
+import de.uka.ilkd.pp.Layouter.TrailingSpaces;
+
 /** The intermediate layer of the pretty printing library.  Using the
  * block size information provided by the {@link Layouter} class, this
  * decides where to insert line breaks.  It tries to break as few
- * blocks as possible.  
+ * blocks as possible.  The output is assembled a line at a time,
+ * and finished lines are sent to the backend with one call each.
+ * The rest of a line is sent when the outermost block ends, or
+ * in parts if the line gets very long, and text outside of any block
+ * is sent at once.  Unless all spaces are
+ * to be kept, see {@link Layouter.TrailingSpaces}, spaces are only
+ * written once text follows them on their line.  If a tab width is
+ * set, the indentation at the start of a line is written with tabs.
  *
  * <p>Exceptions of type {@code Exc} thrown by the backend will get
  * passed through to the Layouter.
@@ -45,17 +56,56 @@ import static de.uka.ilkd.pp.IndentationStack.BreakDecision.*;
 class Printer<Exc extends Exception> {
 	
 	/** total line length available */
-	private final int lineWidth;
+	private int lineWidth;
 
 	/** position in current line. */
 	private int pos;
 
 	/** total chars written */
-	private int totalOut = 0;
+	private long totalOut = 0;
 
 	/** Back-end for the pretty-printed output */
 	private Backend<Exc> back;
 
+	/** Texts longer than this are sent to the backend as they are,
+	 * instead of being copied to <code>line</code>.  A line is also
+	 * sent in parts once more than this many characters of it are
+	 * buffered, so a long unbroken line needs no more memory. */
+	private static final int MAX_BUFFERED = 4096;
+
+	/** The current line, as far as it has not been sent to the backend
+	 * yet.  Lines are assembled here and sent to the backend with
+	 * {@link Backend#printLine(char[], int, int)} when they are
+	 * finished. */
+	private char[] line = new char[128];
+
+	/** The number of characters in <code>line</code> */
+	private int lineLength = 0;
+
+	/** Which spaces are left out at the ends of lines */
+	private TrailingSpaces trailingSpaces = TrailingSpaces.KEEP;
+
+	/** Spaces at the end of the current line which have not been
+	 * written yet, as they are to be left out if no text follows.  If
+	 * <code>trailingSpaces</code> is <code>KEEP</code>, these can only be
+	 * the spaces at the start of a line when a tab width is set; they
+	 * are held back so that they are written with tabs as a whole. */
+	private int pendingSpaces = 0;
+
+	/** Whether text has been printed on the current line */
+	private boolean lineHasText = false;
+
+	/** The number of columns a tab at the start of a line stands for,
+	 * or 0 to indent with spaces only */
+	private int tabWidth = 0;
+
+	/** Whether text is kept until its line is finished */
+	private boolean lineBuffered = true;
+
+	/** Whether nothing has been written on the current line yet, so
+	 * that spaces written now start at column 0 */
+	private boolean atLineStart = true;
+
 
 	/** stack to remember value of <code>pos</code> and 
 	 * breaking decisions in nested blocks */
@@ -71,13 +121,91 @@ class Printer<Exc extends Exception> {
 		pos = 0;
 	}
 
+	/** Create a printer for material inside a broken consistent block.
+	 * This is used to lay out parts of a block independently, see 
+	 * {@link Doc#render(Backend, java.util.concurrent.ForkJoinPool)}.
+	 * @param back the Backend to write output to
+	 * @param pos the position in the current line
+	 * @param indentation the indentation level of the block
+	 */
+	Printer(Backend<Exc> back, int pos, int indentation) {
+		this(back);
+		this.pos = pos;
+		atLineStart = pos == 0;
+		indentStack.push(indentation, CONSISTENT);
+	}
+
+	/** Make this printer start over, writing its output to 
+	 * <code>back</code>.  The indentation stack is kept allocated.
+	 * @param back the Backend to write output to
+	 */
+	void reset(Backend<Exc> back) {
+		this.back = back;
+		lineWidth = back.lineWidth();
+		pos = 0;
+		totalOut = 0;
+		lineLength = 0;
+		pendingSpaces = 0;
+		lineHasText = false;
+		atLineStart = true;
+		indentStack.clear();
+	}
+
 	/** Write the String <code>s</code> to <code>out</code> 
 	 * @param s the String to write
+	 * @param width the space required by <code>s</code>, as measured by the backend
 	 */
-	void print(String s) throws Exc {
-		back.print(s);
-		pos += back.measure(s);
-		totalOut += back.measure(s);
+	void print(String s, int width) throws Exc {
+		beforeText();
+		int n = s.length();
+		if (n > MAX_BUFFERED) {
+			flushLine();
+			back.print(s);
+		} else {
+			reserve(n);
+			s.getChars(0, n, line, lineLength);
+			lineLength += n;
+		}
+		afterText(width);
+	}
+
+	/** Write the characters of <code>s</code> to <code>out</code>
+	 * @param s the characters to write
+	 * @param width the space required by <code>s</code>, as measured by the backend
+	 */
+	void print(CharSequence s, int width) throws Exc {
+		beforeText();
+		append(s);
+		afterText(width);
+	}
+
+	/** Write the <code>parts</code> to <code>out</code>, one after the other
+	 * @param parts the texts to write
+	 * @param width the space required by all of them, as measured by the backend
+	 */
+	void print(CharSequence[] parts, int width) throws Exc {
+		beforeText();
+		for (CharSequence s : parts) {
+			append(s);
+		}
+		afterText(width);
+	}
+
+	/** Write <code>len</code> characters of <code>buf</code>, starting at
+	 * <code>off</code>, to <code>out</code>
+	 * @param width the space required by the characters, as measured by the backend
+	 */
+	void print(char[] buf, int off, int len, int width) throws Exc {
+		beforeText();
+		if (len > MAX_BUFFERED) {
+			flushLine();
+			back.print(buf, off, len);
+		} else {
+			reserve(len);
+			System.arraycopy(buf, off, line, lineLength, len);
+			lineLength += len;
+		}
+		afterText(width);
 	}
 
 	/** Begin a block.  The parameter <code>followingLength</code> gives
@@ -99,8 +227,11 @@ class Printer<Exc extends Exception> {
 	}
 
 	/** end a block */
-	void closeBlock() {
+	void closeBlock() throws Exc {
 		indentStack.pop();
+		if (indentStack.isEmpty()) {
+			flushLine();
+		}
 	}
 
 	/**
@@ -131,6 +262,8 @@ class Printer<Exc extends Exception> {
 	 * through to the backend.
 	 */
 	void mark(Object o) throws Exc {
+		writePendingSpaces();
+		flushLine();
 		back.mark(o);
 	}
 
@@ -152,21 +285,88 @@ class Printer<Exc extends Exception> {
 		}
 	}
 
+	/** Send the rest of the output to the backend, leaving out the
+	 * spaces at its end as chosen by <code>trailingSpaces</code>. */
+	void finish() throws Exc {
+		endLine();
+		flushLine();
+	}
+
 	/** Close the output stream. */
 	void close() throws Exc {
+		finish();
 		back.close();
 	}
 
 	/** Flush the output stream. */
 	void flush() throws Exc {
+		flushLine();
 		back.flush();
 	}
 
+	/** Send the part of the current line assembled so far to the
+	 * backend.  This must be called before output is sent to the
+	 * backend by other means, and when the Printer is no longer used.
+	 * Spaces not written yet stay pending. */
+	void flushLine() throws Exc {
+		if (lineLength > 0) {
+			back.print(line, 0, lineLength);
+			lineLength = 0;
+		}
+	}
+
+	/** Choose which spaces are left out at the ends of lines.  Spaces
+	 * that are pending are written if they are all to be kept from now
+	 * on, unless they are leading white space to be written with tabs. */
+	void setTrailingSpaces(TrailingSpaces trailingSpaces) {
+		this.trailingSpaces = trailingSpaces;
+		if (trailingSpaces == TrailingSpaces.KEEP
+				&& !(atLineStart && tabWidth > 0)) {
+			writePendingSpaces();
+		}
+	}
+
+	/** Indent lines with tabs standing for <code>tabWidth</code>
+	 * columns each, followed by spaces for the rest, or with spaces
+	 * only if <code>tabWidth</code> is 0. */
+	void setTabWidth(int tabWidth) {
+		this.tabWidth = tabWidth;
+	}
+
+	/** Choose whether text is kept until its line is finished, or sent
+	 * to the backend at once, as it should if output is expected
+	 * promptly. */
+	void setLineBuffered(boolean lineBuffered) {
+		this.lineBuffered = lineBuffered;
+	}
+
 	/** Return the amount of space currently left on this line. */
 	int space() {
 		return lineWidth - pos;
 	}
 
+	/** Return the backend this printer writes to. */
+	Backend<Exc> backend() {
+		return back;
+	}
+
+	/** Return the position in the current line. */
+	int position() {
+		return pos;
+	}
+
+	/** Continue at position <code>pos</code> in the current line, after
+	 * output has been sent to the backend by other means. */
+	void setPosition(int pos) {
+		this.pos = pos;
+	}
+
+	/** Return the indentation level of the innermost block, or 0 outside
+	 * of any block. */
+	int topIndentation() {
+		return indentStack.isEmpty() ? 0 : indentStack.topIndentation();
+	}
+
 	/** Return the line width of this Printer. */
 	int lineWidth() {
 		return lineWidth;
@@ -187,37 +387,142 @@ class Printer<Exc extends Exception> {
 		}
 	}
 	
-	/** Start a new line and indent according to <code>pos</code>
+	/** Start a new line and indent according to <code>pos</code>.
+	 * The finished line is sent to the backend, and the indentation
+	 * becomes the start of the next line.  If nothing of the line is
+	 * left in the buffer, the backend is asked for the line break and
+	 * the indentation at once.
 	 */
 	private void newLine() throws Exc {
-		back.newLine();
+		endLine();
+		if (lineLength == 0 && trailingSpaces == TrailingSpaces.KEEP
+				&& tabWidth == 0) {
+			int indent = pos > 0 ? pos : 0;
+			back.newLine(indent);
+			totalOut += 1 + indent;
+			atLineStart = indent == 0;
+			return;
+		}
+		if (lineLength == 0) {
+			back.newLine();
+		} else {
+			reserve(1);
+			line[lineLength++] = '\n';
+			back.printLine(line, 0, lineLength);
+			lineLength = 0;
+		}
 		totalOut++;
+		atLineStart = true;
 		if (pos > 0) {
 			writeSpaces(pos);
 		}
 	}
 
-	/** how many spaces are in SPACES */
-	private static final int NR_SPACES = 128;
+	/** Deal with the pending spaces at the end of the current line:
+	 * they are written if all spaces are kept, or if there is text on
+	 * the line and only indentation is to be left out, and dropped
+	 * otherwise. */
+	private void endLine() {
+		if (pendingSpaces > 0
+				&& (trailingSpaces == TrailingSpaces.KEEP
+					|| (trailingSpaces == TrailingSpaces.LAZY_INDENTATION
+						&& lineHasText))) {
+			writePendingSpaces();
+		}
+		pendingSpaces = 0;
+		lineHasText = false;
+	}
+
+	/** Advance the position past text of the given width.  The line
+	 * assembled so far is sent to the backend if the text is outside
+	 * of any block, if lines are not buffered, or if the line has grown
+	 * past {@link #MAX_BUFFERED} characters. */
+	private void afterText(int width) throws Exc {
+		pos += width;
+		totalOut += width;
+		if (indentStack.isEmpty() || !lineBuffered
+				|| lineLength > MAX_BUFFERED) {
+			flushLine();
+		}
+	}
+
+	/** Write the pending spaces before text is printed. */
+	private void beforeText() {
+		writePendingSpaces();
+		lineHasText = true;
+		atLineStart = false;
+	}
 
-	/** a String containing <code>NR_SPACES</code> spaces */
-	private static final String SPACES;
+	/** Append the pending spaces to the current line. */
+	private void writePendingSpaces() {
+		if (pendingSpaces > 0) {
+			appendSpaces(pendingSpaces);
+			pendingSpaces = 0;
+		}
+	}
 
-	/* initialize SPACES */
-	static {
-		StringBuilder sb = new StringBuilder(NR_SPACES);
-		for (int i = 0; i < NR_SPACES; i++) {
-			sb.append(' ');
+	/** Append the characters of <code>s</code> to the current line. */
+	private void append(CharSequence s) throws Exc {
+		if (lineLength > MAX_BUFFERED) {
+			flushLine();
 		}
-		SPACES = sb.toString();
+		if (s instanceof String) {
+			int n = s.length();
+			if (n <= MAX_BUFFERED) {
+				reserve(n);
+				((String) s).getChars(0, n, line, lineLength);
+				lineLength += n;
+				return;
+			}
+		} else if (s.length() <= MAX_BUFFERED) {
+			int n = s.length();
+			reserve(n);
+			for (int i = 0; i < n; i++) {
+				line[lineLength + i] = s.charAt(i);
+			}
+			lineLength += n;
+			return;
+		}
+		flushLine();
+		back.print(s);
 	}
 
-	private void writeSpaces(int n) throws Exc {
-		while (n > NR_SPACES) {
-			back.print(SPACES);
-			n -= NR_SPACES;
+	/** Make room for <code>n</code> more characters in
+	 * <code>line</code>. */
+	private void reserve(int n) {
+		if (lineLength + n > line.length) {
+			line = Arrays.copyOf(line,
+					Math.max(2 * line.length, lineLength + n));
 		}
-		back.print(SPACES.substring(0, n));
+	}
+
+	/** Add <code>n</code> spaces to the current line, or to the pending
+	 * spaces unless they are all kept.  Spaces at the start of a line
+	 * are kept pending if a tab width is set, until the whole of the
+	 * leading white space is known. */
+	private void writeSpaces(int n) {
 		totalOut += n;
+		if (trailingSpaces != TrailingSpaces.KEEP
+				|| (atLineStart && tabWidth > 0)) {
+			pendingSpaces += n;
+			return;
+		}
+		appendSpaces(n);
+	}
+
+	/** Append <code>n</code> columns of white space to the current line.
+	 * At the start of a line, they are written with tabs as far as
+	 * possible if a tab width is set. */
+	private void appendSpaces(int n) {
+		reserve(n);
+		if (atLineStart && tabWidth > 0) {
+			int tabs = n / tabWidth;
+			Arrays.fill(line, lineLength, lineLength + tabs, '\t');
+			lineLength += tabs;
+			n -= tabs * tabWidth;
+		}
+		Arrays.fill(line, lineLength, lineLength + n, ' ');
+		lineLength += n;
+		atLineStart = false;
 	}
 }
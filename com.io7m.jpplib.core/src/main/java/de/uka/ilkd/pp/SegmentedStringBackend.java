@@ -0,0 +1,375 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/** A {@link Backend} which collects all output in memory, like a
+ * {@link StringBackend}, but in segments of a fixed size instead of one
+ * contiguous buffer.  When the output grows, a new segment is added, so
+ * the characters written so far are never copied, and no more than one
+ * segment is allocated but unused.  The output may be read through
+ * {@link #getCharSequence()} or written to a Writer with
+ * {@link #writeTo(Writer)}, neither of which copies it into one String;
+ * {@link #getString()} does so if that is really wanted.  To write the
+ * output to a channel, wrap the channel with
+ * {@link java.nio.channels.Channels#newWriter}.
+ *
+ * <p>The segment size may be chosen from a {@link LengthEstimate}, which
+ * learns the typical length of the output from previous documents:
+ * short output then gets short segments, long output longer ones.
+ *
+ * <p>The {@link #mark(Object o)} method does nothing in this
+ * implementation.
+ *
+ * @since 1.0.1
+ */
+public class SegmentedStringBackend implements Backend<NoExceptions> {
+
+	/** The segment size if no estimate is given */
+	public static final int DEFAULT_SEGMENT_SIZE = 8192;
+
+	/** The smallest segment size chosen from an estimate */
+	public static final int MIN_SEGMENT_SIZE = 1024;
+
+	/** The largest segment size chosen from an estimate */
+	public static final int MAX_SEGMENT_SIZE = 64 * 1024;
+
+	/** The maximum width of lines to be written to this backend. */
+	protected int lineWidth;
+
+	/** log2 of the segment size */
+	private final int segmentBits;
+
+	/** The segments, of which the first <code>segmentCount</code> are
+	 * in use */
+	private char[][] segments;
+
+	private int segmentCount = 0;
+
+	/** The number of characters in the last segment in use */
+	private int fill;
+
+	/** The total number of characters */
+	private long length = 0;
+
+	/** The estimate to report the length to on close, or null */
+	private final LengthEstimate estimate;
+
+	/** Whether the length has been reported to the estimate */
+	private boolean closed = false;
+
+	/** Create a new SegmentedStringBackend with segments of
+	 * {@link #DEFAULT_SEGMENT_SIZE} characters.
+	 * @param lineWidth the maximum line width
+	 */
+	public SegmentedStringBackend(int lineWidth) {
+		this(lineWidth, DEFAULT_SEGMENT_SIZE, 16, null);
+	}
+
+	/** Create a new SegmentedStringBackend with a segment size chosen
+	 * from <code>estimate</code>.  Its length is added to the estimate when
+	 * this backend is closed.
+	 * @param lineWidth the maximum line width
+	 * @param estimate the estimated length of the output
+	 */
+	public SegmentedStringBackend(int lineWidth, LengthEstimate estimate) {
+		this(lineWidth, estimate.get(), estimate);
+	}
+
+	private SegmentedStringBackend(int lineWidth, long expected,
+			LengthEstimate estimate) {
+		this(lineWidth, segmentSize(expected),
+				(int) Math.min(expected / segmentSize(expected), 1 << 20) + 1,
+				estimate);
+	}
+
+	private SegmentedStringBackend(int lineWidth, int segmentSize,
+			int tableSize, LengthEstimate estimate) {
+		this.lineWidth = lineWidth;
+		this.segmentBits = Integer.numberOfTrailingZeros(segmentSize);
+		this.segments = new char[tableSize][];
+		this.fill = segmentSize;
+		this.estimate = estimate;
+	}
+
+	/** The largest power of two up to a sixteenth of
+	 * <code>length</code>, but at least {@link #MIN_SEGMENT_SIZE} and at
+	 * most {@link #MAX_SEGMENT_SIZE} */
+	private static int segmentSize(long length) {
+		long s = Long.highestOneBit(Math.max(length / 16, 1));
+		return (int) Math.max(MIN_SEGMENT_SIZE,
+				Math.min(MAX_SEGMENT_SIZE, s));
+	}
+
+	/** Append a String <code>s</code> to the output.  <code>s</code>
+	 * contains no newlines. */
+	public void print(String s) {
+		int n = s.length();
+		int off = 0;
+		while (off < n) {
+			char[] seg = room();
+			int k = Math.min(n - off, seg.length - fill);
+			s.getChars(off, off + k, seg, fill);
+			fill += k;
+			off += k;
+		}
+		length += n;
+	}
+
+	/** Append the characters of <code>s</code> to the output.
+	 * <code>s</code> contains no newlines. */
+	public void print(CharSequence s) {
+		if (s instanceof String) {
+			print((String) s);
+			return;
+		}
+		int n = s.length();
+		int off = 0;
+		while (off < n) {
+			char[] seg = room();
+			int k = Math.min(n - off, seg.length - fill);
+			for (int i = 0; i < k; i++) {
+				seg[fill + i] = s.charAt(off + i);
+			}
+			fill += k;
+			off += k;
+		}
+		length += n;
+	}
+
+	/** Append <code>len</code> characters of <code>buf</code>, starting
+	 * at <code>off</code>, to the output. */
+	public void print(char[] buf, int off, int len) {
+		int end = off + len;
+		while (off < end) {
+			char[] seg = room();
+			int k = Math.min(end - off, seg.length - fill);
+			System.arraycopy(buf, off, seg, fill, k);
+			fill += k;
+			off += k;
+		}
+		length += len;
+	}
+
+	/** Start a new line. */
+	public void newLine() {
+		room()[fill++] = '\n';
+		length++;
+	}
+
+	/** Start a new line and indent it by <code>indent</code> spaces. */
+	public void newLine(int indent) {
+		int n = Math.min(indent, Indentation.CACHED);
+		print(Indentation.NEWLINE_SPACES, 0, n + 1);
+		for (indent -= n; indent > 0; indent -= n) {
+			n = Math.min(indent, Indentation.CACHED);
+			print(Indentation.NEWLINE_SPACES, 1, n);
+		}
+	}
+
+	/** Append a line, ending with a <code>'\n'</code>, to the output. */
+	public void printLine(char[] buf, int off, int len) {
+		print(buf, off, len);
+	}
+
+	/** Closes this backend.  The output can still be read.  If the
+	 * backend was created with a {@link LengthEstimate}, the length of the
+	 * output is added to it, once, however often the backend is closed. */
+	public void close() {
+		if (estimate != null && !closed) {
+			estimate.add(length);
+		}
+		closed = true;
+	}
+
+	/** Flushes any buffered output */
+	public void flush() {
+		return;
+	}
+
+	/** Gets called to record a <code>mark()</code> call in the input. */
+	public void mark(Object o) {
+		return;
+	}
+
+	/** Returns the number of characters written through this backend.*/
+	public long count() {
+		return length;
+	}
+
+	/** Returns the available space per line */
+	public int lineWidth() {
+		return lineWidth;
+	}
+
+	/** Returns the space required to print the String <code>s</code> */
+	public int measure(String s) {
+		return s.length();
+	}
+
+	/** Returns the space required to print the characters of
+	 * <code>s</code> */
+	public int measure(CharSequence s) {
+		return s.length();
+	}
+
+	/** Returns the space required to print <code>len</code> characters
+	 * of <code>buf</code> */
+	public int measure(char[] buf, int off, int len) {
+		return len;
+	}
+
+	/** Returns the number of characters per segment */
+	public int getSegmentSize() {
+		return 1 << segmentBits;
+	}
+
+	/** Returns the output written so far as a CharSequence.  It reads
+	 * the segments of this backend, without copying them.  Output
+	 * written later is not part of it.
+	 * @throws IllegalStateException if the output is longer than
+	 *         {@link Integer#MAX_VALUE} characters; use
+	 *         {@link #writeTo(Writer)} instead
+	 */
+	public CharSequence getCharSequence() {
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("output too long");
+		}
+		return new Chars(0, (int) length);
+	}
+
+	/** Returns the accumulated output as one String.  This copies all
+	 * of it; see {@link #getCharSequence()}. */
+	public String getString() {
+		return getCharSequence().toString();
+	}
+
+	/** Write the output written so far to <code>w</code>, one segment
+	 * at a time.
+	 * @param w the Writer to write to
+	 * @throws IOException if <code>w</code> throws one
+	 */
+	public void writeTo(Writer w) throws IOException {
+		for (int i = 0; i < segmentCount; i++) {
+			char[] seg = segments[i];
+			w.write(seg, 0, i == segmentCount - 1 ? fill : seg.length);
+		}
+	}
+
+	/** Return the last segment, adding one if it is full. */
+	private char[] room() {
+		int size = 1 << segmentBits;
+		if (fill == size) {
+			if (segmentCount == segments.length) {
+				segments = Arrays.copyOf(segments, 2 * segmentCount);
+			}
+			segments[segmentCount++] = new char[size];
+			fill = 0;
+		}
+		return segments[segmentCount - 1];
+	}
+
+	/** A view of a range of the output. */
+	private final class Chars implements CharSequence {
+		private final int start;
+		private final int end;
+
+		Chars(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			int i = start + index;
+			return segments[i >>> segmentBits][i & ((1 << segmentBits) - 1)];
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > end - start || from > to) {
+				throw new IndexOutOfBoundsException(from + ", " + to);
+			}
+			return new Chars(start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(end - start);
+			int mask = (1 << segmentBits) - 1;
+			for (int i = start; i < end;) {
+				char[] seg = segments[i >>> segmentBits];
+				int off = i & mask;
+				int k = Math.min(end - i, seg.length - off);
+				sb.append(seg, off, k);
+				i += k;
+			}
+			return sb.toString();
+		}
+	}
+
+	/** A thread-safe estimate of the length of the output, learned from
+	 * the lengths of previous documents.  It is a moving average, in which
+	 * each new length counts for a quarter.  One estimate may be shared
+	 * by all backends writing similar documents.
+	 *
+	 * @since 1.0.1
+	 */
+	public static final class LengthEstimate {
+		private long estimate;
+
+		/** Create an estimate starting at <code>initial</code>
+		 * characters.
+		 * @param initial the initial estimate
+		 */
+		public LengthEstimate(long initial) {
+			this.estimate = Math.max(initial, 0);
+		}
+
+		/** @return the estimated length of the output */
+		public synchronized long get() {
+			return estimate;
+		}
+
+		/** Add the length of another document to the estimate.
+		 * @param length the length of the document
+		 */
+		public synchronized void add(long length) {
+			estimate += (length - estimate) / 4;
+		}
+	}
+}
@@ -0,0 +1,468 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A {@link TokenQueue} which writes its older tokens to temporary files
+ * when it gets too long.  The newest tokens are kept in a
+ * {@link HeapTokenQueue}.  Whenever this holds more than a given number
+ * of tokens, the older half of them is written to a file of fixed-size
+ * records, and the text of the {@link #STRING} tokens to a second file.
+ * They are read back, in order and a block at a time, as the tokens are
+ * sent to the {@link Printer}.  {@link #PARTS} tokens are written as
+ * STRING tokens with the parts joined.  Once all tokens in the files are
+ * removed, the files are written from the start again.  If they are
+ * not, the tokens still in the files are moved to their start before
+ * more are written, once at least {@link #COMPACT} removed records, and
+ * at least as many as are still there, precede them.  The record file
+ * thus holds at most twice the pending records, or
+ * <code>2 * COMPACT</code> if that is more, plus the records of one
+ * spill.  The text file holds the text of these records.  The objects
+ * passed with {@link #MARK} tokens are kept on the heap.
+ *
+ * <p>A record holds the <code>kind</code>, <code>width</code>,
+ * <code>offset</code> of a token as ints, its <code>begin</code> and
+ * <code>end</code> as longs, and for STRING tokens the position of the
+ * text in the text file as a long.  The <code>offset</code> field of STRING tokens holds
+ * the length of the text, which is written as two bytes per char.
+ *
+ * <p>Errors reading or writing the files are reported as
+ * {@link UncheckedIOException}s.  The files are created when they are
+ * first needed, and deleted when the queue is {@linkplain #close()
+ * closed}.
+ */
+final class SpillingTokenQueue extends TokenQueue {
+
+	/** The number of bytes in a record */
+	private static final int RECORD = 36;
+
+	private static final int KIND = 0;
+	private static final int WIDTH = 4;
+	private static final int OFFSET = 8;
+	private static final int BEGIN = 12;
+	private static final int END = 20;
+	private static final int TEXT = 28;
+
+	/** The number of records read or written at once */
+	private static final int BLOCK = 1024;
+
+	/** The number of removed records at the start of the record file
+	 * from which on the files are compacted */
+	static final int COMPACT = 16 * BLOCK;
+
+	/** The number of tokens kept in memory before spilling */
+	private final int threshold;
+
+	/** The directory for the files, or null for the default */
+	private final Path directory;
+
+	/** The newest tokens */
+	private final HeapTokenQueue mem;
+
+	/** The sequence number of the first token in <code>mem</code>. The
+	 * tokens from <code>head</code> to before this are in the files. */
+	private int spillEnd = 0;
+
+	/** The sequence number of the token at the start of the record file */
+	private int fileBase = 0;
+
+	/** The number of bytes written to the text file */
+	private long textEnd = 0;
+
+	private FileChannel records;
+	private FileChannel text;
+
+	/** The objects of the MARK tokens in the files */
+	private final Map<Integer, Object> marks = new HashMap<Integer, Object>();
+
+	/** A block of records read from the file */
+	private final ByteBuffer cache = ByteBuffer.allocate(BLOCK * RECORD);
+
+	/** A block of records to be written to the file */
+	private final ByteBuffer recordBuffer =
+		ByteBuffer.allocate(BLOCK * RECORD);
+
+	/** The new <code>end</code> of a record in the file */
+	private final ByteBuffer endBuffer = ByteBuffer.allocate(8);
+
+	/** The sequence number of the first record in <code>cache</code> */
+	private int cacheStart = 0;
+
+	/** The number of records in <code>cache</code> */
+	private int cacheCount = 0;
+
+	/** A part of the text file, or a buffer for writing to it */
+	private ByteBuffer textCache = ByteBuffer.allocate(64 * 1024);
+
+	/** The position in the text file of <code>textCache</code> */
+	private long textCacheStart = 0;
+
+	/** The number of valid bytes in <code>textCache</code> */
+	private int textCacheLength = 0;
+
+	/** Create an empty queue.
+	 * @param threshold the number of tokens kept in memory
+	 * @param directory the directory to create the files in, or null
+	 *        for the default temporary directory
+	 */
+	SpillingTokenQueue(int threshold, Path directory) {
+		this.threshold = Math.max(threshold, 2);
+		this.directory = directory;
+		this.mem = new HeapTokenQueue(Math.min(this.threshold + 1, 1 << 16));
+	}
+
+	/** Return the number of tokens kept in memory. */
+	int threshold() {
+		return threshold;
+	}
+
+	/** Return the total size of the files in bytes. */
+	long fileSize() {
+		try {
+			return records == null ? 0 : records.size() + text.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	int add(int k, int w, int off, long b, Object o) {
+		int t = mem.add(k, w, off, b, o);
+		tail++;
+		if (mem.size() > threshold) {
+			spill(mem.size() - threshold / 2);
+		}
+		return t;
+	}
+
+	void removeFirst() {
+		if (head == spillEnd) {
+			/* the files are empty */
+			mem.removeFirst();
+			head++;
+			spillEnd++;
+		} else {
+			if ((field(head, KIND) & KIND_MASK) == MARK) {
+				marks.remove(head);
+			}
+			head++;
+		}
+	}
+
+	void clear() {
+		mem.clear();
+		marks.clear();
+		head = 0;
+		tail = 0;
+		spillEnd = 0;
+		fileBase = 0;
+		textEnd = 0;
+		cacheCount = 0;
+		textCacheLength = 0;
+	}
+
+	void close() {
+		try {
+			if (records != null) {
+				records.close();
+				text.close();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			records = null;
+			text = null;
+		}
+	}
+
+	int flags(int t) {
+		return t - spillEnd >= 0 ? mem.flags(t) : field(t, KIND);
+	}
+
+	int width(int t) {
+		return t - spillEnd >= 0 ? mem.width(t) : field(t, WIDTH);
+	}
+
+	int offset(int t) {
+		return t - spillEnd >= 0 ? mem.offset(t) : field(t, OFFSET);
+	}
+
+	long begin(int t) {
+		return t - spillEnd >= 0 ? mem.begin(t) : longField(t, BEGIN);
+	}
+
+	long end(int t) {
+		return t - spillEnd >= 0 ? mem.end(t) : longField(t, END);
+	}
+
+	Object object(int t) {
+		if (t - spillEnd >= 0) {
+			return mem.object(t);
+		}
+		switch (field(t, KIND) & KIND_MASK) {
+		case STRING:
+			return readText(cache.getLong((t - cacheStart) * RECORD + TEXT),
+					field(t, OFFSET));
+		case MARK:
+			return marks.get(t);
+		default:
+			return null;
+		}
+	}
+
+	void setEnd(int t, long e) {
+		if (t - spillEnd >= 0) {
+			mem.setEnd(t, e);
+			return;
+		}
+		int i = t - cacheStart;
+		if (i >= 0 && i < cacheCount) {
+			cache.putLong(i * RECORD + END, e);
+		}
+		endBuffer.clear();
+		endBuffer.putLong(0, e);
+		write(records, endBuffer, (long) (t - fileBase) * RECORD + END);
+	}
+
+	/** Return an int field of the record of token <code>t</code>, which
+	 * is in the files.  Afterwards, the record is in <code>cache</code>. */
+	private int field(int t, int f) {
+		return cache.getInt(cached(t) * RECORD + f);
+	}
+
+	/** Return a long field of the record of token <code>t</code>, which
+	 * is in the files.  Afterwards, the record is in <code>cache</code>. */
+	private long longField(int t, int f) {
+		return cache.getLong(cached(t) * RECORD + f);
+	}
+
+	/** Read the record of token <code>t</code> into <code>cache</code>,
+	 * unless it is there already, and return its index there. */
+	private int cached(int t) {
+		int i = t - cacheStart;
+		if (i < 0 || i >= cacheCount) {
+			cacheStart = t;
+			cacheCount = Math.min(BLOCK, spillEnd - t);
+			cache.clear();
+			cache.limit(cacheCount * RECORD);
+			read(records, cache, (long) (t - fileBase) * RECORD);
+			i = 0;
+		}
+		return i;
+	}
+
+	/** Return the text of <code>length</code> chars at position
+	 * <code>pos</code> in the text file. */
+	private String readText(long pos, int length) {
+		int bytes = 2 * length;
+		if (pos < textCacheStart
+				|| pos + bytes > textCacheStart + textCacheLength) {
+			if (bytes > textCache.capacity()) {
+				textCache = ByteBuffer.allocate(bytes);
+			}
+			textCacheStart = pos;
+			textCacheLength = (int) Math.min(textCache.capacity(),
+					textEnd - pos);
+			textCache.clear();
+			textCache.limit(textCacheLength);
+			read(text, textCache, pos);
+		}
+		int p = (int) (pos - textCacheStart);
+		char[] s = new char[length];
+		for (int j = 0; j < length; j++) {
+			s[j] = textCache.getChar(p + 2 * j);
+		}
+		return new String(s);
+	}
+
+	/** Move the <code>n</code> oldest tokens from <code>mem</code> to the
+	 * files. */
+	private void spill(int n) {
+		if (records == null) {
+			records = open("records");
+			text = open("text");
+		}
+		if (head == spillEnd) {
+			/* the files are empty, start over */
+			fileBase = spillEnd;
+			textEnd = 0;
+			cacheCount = 0;
+		} else if (head - fileBase >= COMPACT
+				&& head - fileBase >= spillEnd - head) {
+			compact();
+		}
+
+		/* the text cache is used as the write buffer for the text */
+		textCacheLength = 0;
+		ByteBuffer rec = recordBuffer;
+		rec.clear();
+		textCache.clear();
+		long textPos = textEnd;
+		while (n > 0) {
+			int t = spillEnd;
+			int k = mem.flags(t);
+			int off = mem.offset(t);
+			long textStart = -1;
+			if ((k & KIND_MASK) == PARTS) {
+				/* the parts are written as one text */
+				k = STRING;
+			}
+			if ((k & KIND_MASK) == STRING) {
+				Object o = mem.object(t);
+				String s = o instanceof String ? (String) o
+						: String.join("", (String[]) o);
+				off = s.length();
+				textStart = textPos;
+				for (int j = 0; j < s.length(); j++) {
+					if (textCache.remaining() < 2) {
+						textCache.flip();
+						write(text, textCache, textEnd);
+						textEnd += textCache.limit();
+						textCache.clear();
+					}
+					textCache.putChar(s.charAt(j));
+				}
+				textPos += 2 * s.length();
+			} else if ((k & KIND_MASK) == MARK) {
+				marks.put(t, mem.object(t));
+			}
+			rec.putInt(k).putInt(mem.width(t)).putInt(off)
+				.putLong(mem.begin(t)).putLong(mem.end(t)).putLong(textStart);
+			mem.removeFirst();
+			spillEnd++;
+			n--;
+			if (!rec.hasRemaining() || n == 0) {
+				rec.flip();
+				write(records, rec,
+						(long) (spillEnd - fileBase - rec.limit() / RECORD)
+						* RECORD);
+				rec.clear();
+			}
+		}
+		textCache.flip();
+		write(text, textCache, textEnd);
+		textEnd += textCache.limit();
+		textCache.clear();
+	}
+
+	/** Move the records of the tokens still in the files, and their
+	 * text, to the start of the files, and cut off the rest.  The text
+	 * positions in the records are corrected on the way. */
+	private void compact() {
+		ByteBuffer rec = recordBuffer;
+		long shift = -1;
+		for (int t = head; spillEnd - t > 0;) {
+			int n = Math.min(BLOCK, spillEnd - t);
+			rec.clear();
+			rec.limit(n * RECORD);
+			read(records, rec, (long) (t - fileBase) * RECORD);
+			for (int i = 0; i < n; i++) {
+				long p = rec.getLong(i * RECORD + TEXT);
+				if (p >= 0) {
+					if (shift < 0) {
+						/* the text is in the order of the records */
+						shift = p;
+					}
+					rec.putLong(i * RECORD + TEXT, p - shift);
+				}
+			}
+			rec.flip();
+			write(records, rec, (long) (t - head) * RECORD);
+			t += n;
+		}
+		if (shift < 0) {
+			shift = textEnd;
+		}
+		for (long from = shift; from < textEnd;) {
+			int n = (int) Math.min(textCache.capacity(), textEnd - from);
+			textCache.clear();
+			textCache.limit(n);
+			read(text, textCache, from);
+			textCache.flip();
+			write(text, textCache, from - shift);
+			from += n;
+		}
+		textEnd -= shift;
+		fileBase = head;
+		cacheCount = 0;
+		textCacheLength = 0;
+		try {
+			records.truncate((long) (spillEnd - fileBase) * RECORD);
+			text.truncate(textEnd);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private FileChannel open(String kind) {
+		try {
+			Path p = directory == null
+				? Files.createTempFile("jpplib-" + kind, ".tmp")
+				: Files.createTempFile(directory, "jpplib-" + kind, ".tmp");
+			return FileChannel.open(p, StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void read(FileChannel c, ByteBuffer b, long pos) {
+		try {
+			while (b.hasRemaining()) {
+				int n = c.read(b, pos);
+				if (n < 0) {
+					throw new EOFException();
+				}
+				pos += n;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void write(FileChannel c, ByteBuffer b, long pos) {
+		try {
+			while (b.hasRemaining()) {
+				pos += c.write(b, pos);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
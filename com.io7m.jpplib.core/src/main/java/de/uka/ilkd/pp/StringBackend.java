@@ -91,6 +91,27 @@ public class StringBackend implements Backend<NoExceptions> {
     	}
     }
 
+    /** Append the characters of <code>s</code> to the output.
+     * <code>s</code> contains no newlines. */
+    public void print(CharSequence s) {
+    	try {
+    		out.append(s);
+    	} catch (java.io.IOException e) {
+    		// Cannot happen, since out can only be a 
+    		// StringBuffer or StringBuilder
+    	}
+    }
+
+    /** Append <code>len</code> characters of <code>buf</code>, starting
+     * at <code>off</code>, to the output. */
+    public void print(char[] buf, int off, int len) {
+    	if (out instanceof StringBuilder) {
+    		((StringBuilder)out).append(buf, off, len);
+    	} else {
+    		((StringBuffer)out).append(buf, off, len);
+    	}
+    }
+
     /** Start a new line. */
     public void newLine() {
     	try {
@@ -102,6 +123,21 @@ public class StringBackend implements Backend<NoExceptions> {
 		}
     }
 
+    /** Start a new line and indent it by <code>indent</code> spaces. */
+    public void newLine(int indent) {
+    	int n = Math.min(indent, Indentation.CACHED);
+    	print(Indentation.NEWLINE_SPACES, 0, n + 1);
+    	for (indent -= n; indent > 0; indent -= n) {
+    		n = Math.min(indent, Indentation.CACHED);
+    		print(Indentation.NEWLINE_SPACES, 1, n);
+    	}
+    }
+
+    /** Append a line, ending with a <code>'\n'</code>, to the output. */
+    public void printLine(char[] buf, int off, int len) {
+    	print(buf, off, len);
+    }
+
     /** Closes this backend */
     public void close() {
     	return;
@@ -140,6 +176,18 @@ public class StringBackend implements Backend<NoExceptions> {
     	return s.length();
     }
 
+    /** Returns the space required to print the characters of
+     * <code>s</code> */
+    public int measure(CharSequence s) {
+    	return s.length();
+    }
+
+    /** Returns the space required to print <code>len</code> characters
+     * of <code>buf</code> */
+    public int measure(char[] buf, int off, int len) {
+    	return len;
+    }
+
     /** Returns the accumulated output */
     public String getString() {
     	return out.toString();
@@ -0,0 +1,198 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp;
+
+/** The queue of tokens a {@link Layouter} has scanned but not yet sent
+ * to its {@link Printer}.
+ *
+ * <p>The queue is a growable ring buffer of token records.  Tokens are
+ * addressed by <em>sequence numbers</em>, which are handed out in
+ * increasing order by {@link #add(int, int, int, long, Object)}.  A
+ * sequence number stays valid until the token is removed from the front
+ * of the queue, even if the buffer grows in the meantime.  Sequence
+ * numbers may wrap around, so they are only compared by their
+ * difference.  How the records are stored is up to the subclasses,
+ * {@link HeapTokenQueue}, {@link DirectTokenQueue} and
+ * {@link SpillingTokenQueue}.
+ *
+ * <p>A record has the following fields, depending on the kind of
+ * the token:
+ * <ul>
+ * <li><code>width</code>: the space needed by the token if the
+ *     surrounding block is not broken, i.e. the measured width of the
+ *     text of a {@link #STRING} or {@link #PARTS} token and the
+ *     <code>width</code>
+ *     argument of {@link #BREAK} and {@link #INDENTATION} tokens.
+ *     It is zero for all other kinds.</li>
+ * <li><code>offset</code>: the <code>offset</code> argument of
+ *     {@link #BREAK} and {@link #INDENTATION} tokens, and the
+ *     indentation of {@link #OPEN_BLOCK} tokens.</li>
+ * <li><code>begin</code>, <code>end</code>: the total size of the
+ *     material scanned before the token, and before the corresponding
+ *     next break or end of block.  Only used for {@link #BREAK} and
+ *     {@link #OPEN_BLOCK} tokens.  A negative <code>end</code> means
+ *     that it is not known yet.</li>
+ * <li><code>object</code>: the text of a {@link #STRING} token, the
+ *     parts of a {@link #PARTS} token, and the object passed with a
+ *     {@link #MARK} token.</li>
+ * </ul>
+ */
+abstract class TokenQueue {
+
+	/** A token corresponding to a <code>print</code> call. */
+	static final int STRING = 0;
+
+	/** A token corresponding to an <code>ind</code> call. */
+	static final int INDENTATION = 1;
+
+	/** A token corresponding to a <code>brk</code> call. */
+	static final int BREAK = 2;
+
+	/** A token corresponding to a <code>begin</code> call. */
+	static final int OPEN_BLOCK = 3;
+
+	/** A token corresponding to an <code>end</code> call. */
+	static final int CLOSE_BLOCK = 4;
+
+	/** A token corresponding to a <code>mark</code> call. */
+	static final int MARK = 5;
+
+	/** A token corresponding to an <code>nl</code> call. */
+	static final int NEWLINE = 6;
+
+	/** A token for text printed in several parts at once.  Its object is
+	 * the array of the parts, as Strings. */
+	static final int PARTS = 7;
+
+	/** Flag or-ed into the kind of a consistent {@link #OPEN_BLOCK}. */
+	static final int CONSISTENT = 0x10;
+
+	/** Flag or-ed into the kind of an {@link #OPEN_BLOCK} indented
+	 * relative to the surrounding block's indentation level. */
+	static final int FROM_IND = 0x20;
+
+	/** Mask to remove the flags from a token kind. */
+	static final int KIND_MASK = 0x0f;
+
+	/** The sequence number of the first token in the queue */
+	int head = 0;
+
+	/** The sequence number the next token added will get */
+	int tail = 0;
+
+	/** Round <code>capacity</code> up to a power of two. */
+	static int capacity(int capacity) {
+		int c = 1;
+		while (c < capacity) {
+			c <<= 1;
+		}
+		return c;
+	}
+
+	/** Return whether the queue is empty. */
+	final boolean isEmpty() {
+		return head == tail;
+	}
+
+	/** Return the number of tokens in the queue. */
+	final int size() {
+		return tail - head;
+	}
+
+	/** Return the sequence number of the first token in the queue. */
+	final int first() {
+		return head;
+	}
+
+	/** Return the sequence number the next token added will get. */
+	final int next() {
+		return tail;
+	}
+
+	/** Append a token to the queue.  Its <code>end</code> is initially
+	 * unknown.
+	 * @return the sequence number of the new token
+	 */
+	abstract int add(int k, int w, int off, long b, Object o);
+
+	/** Append a {@link #STRING} token whose text is <code>len</code>
+	 * characters of <code>buf</code>, starting at <code>off</code>.  The
+	 * characters are copied.
+	 * @return the sequence number of the new token
+	 */
+	int add(int w, char[] buf, int off, int len) {
+		return add(STRING, w, 0, 0, new String(buf, off, len));
+	}
+
+	/** Remove all tokens from the queue, keeping the allocated buffer. */
+	void clear() {
+		while (!isEmpty()) {
+			removeFirst();
+		}
+		head = 0;
+		tail = 0;
+	}
+
+	/** Remove the first token from the queue. */
+	abstract void removeFirst();
+
+	/** Release any resources other than memory held by the queue, like
+	 * files.  The queue must be empty.  The resources are acquired again
+	 * if the queue is used afterwards. */
+	void close() {
+		return;
+	}
+
+	/** Return the kind of token <code>t</code>, including flags. */
+	abstract int flags(int t);
+
+	final int kind(int t) {
+		return flags(t) & KIND_MASK;
+	}
+
+	final boolean isConsistent(int t) {
+		return (flags(t) & CONSISTENT) != 0;
+	}
+
+	final boolean isFromInd(int t) {
+		return (flags(t) & FROM_IND) != 0;
+	}
+
+	abstract int width(int t);
+
+	abstract int offset(int t);
+
+	abstract long begin(int t);
+
+	abstract long end(int t);
+
+	abstract Object object(int t);
+
+	abstract void setEnd(int t, long e);
+}
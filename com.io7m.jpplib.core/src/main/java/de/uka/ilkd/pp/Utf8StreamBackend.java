@@ -0,0 +1,322 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+package de.uka.ilkd.pp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A {@link Backend} which encodes all output as UTF-8 and writes it
+ * to a java.io.OutputStream.  The characters are encoded directly into
+ * a reusable buffer, which is written to the stream whenever it is
+ * full, and on {@link #flush()} and {@link #close()}, so no
+ * {@link java.io.Writer} is involved.  Text consisting of ASCII
+ * characters takes a shortcut, the rest is encoded by a
+ * {@link CharsetEncoder}, and line breaks with their indentation are
+ * copied from a precomputed byte array.  Unpaired surrogate characters
+ * are written as <code>'?'</code>.
+ *
+ * <p>The {@link #mark(Object o)} method does nothing in this
+ * implementation.  There is a method {@link #count()} which returns the
+ * number of characters written by this so far.
+ *
+ * @since 1.0.1
+ */
+public class Utf8StreamBackend implements Backend<IOException> {
+
+	/** The default size of the buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/** The longest run of spaces in <code>NEWLINE_SPACES</code> */
+	private static final int CACHED = Indentation.CACHED;
+
+	/** A newline followed by <code>CACHED</code> spaces, in UTF-8 */
+	private static final byte[] NEWLINE_SPACES = new byte[CACHED + 1];
+
+	static {
+		NEWLINE_SPACES[0] = '\n';
+		Arrays.fill(NEWLINE_SPACES, 1, CACHED + 1, (byte) ' ');
+	}
+
+	protected OutputStream out;
+	protected int lineWidth;
+	protected long count = 0;
+
+	/** The buffer the output is encoded into, or null if there is none
+	 * at the moment.  Subclasses which do not write to a stream supply
+	 * their own buffers with {@link #next(ByteBuffer)}. */
+	ByteBuffer buf;
+
+	/** The encoder for text which is not ASCII */
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8
+		.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/** Create a new Utf8StreamBackend with a buffer of
+	 * {@link #DEFAULT_BUFFER_SIZE} bytes.
+	 * @param out the stream to write to
+	 * @param lineWidth the maximum line width
+	 */
+	public Utf8StreamBackend(OutputStream out, int lineWidth) {
+		this(out, lineWidth, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Create a new Utf8StreamBackend.
+	 * @param out the stream to write to
+	 * @param lineWidth the maximum line width
+	 * @param bufferSize the size of the buffer, at least 4 bytes
+	 * @throws IllegalArgumentException if <code>bufferSize</code> is
+	 *         less than 4
+	 */
+	public Utf8StreamBackend(OutputStream out, int lineWidth,
+			int bufferSize) {
+		if (bufferSize < 4) {
+			throw new IllegalArgumentException("buffer too small");
+		}
+		this.out = out;
+		this.lineWidth = lineWidth;
+		this.buf = ByteBuffer.allocate(bufferSize);
+	}
+
+	/** Create a new Utf8StreamBackend which does not write to a stream.
+	 * The subclass supplies the buffers by overriding
+	 * {@link #next(ByteBuffer)}, and takes care of flushing and closing.
+	 * @param lineWidth the maximum line width
+	 */
+	Utf8StreamBackend(int lineWidth) {
+		this.lineWidth = lineWidth;
+	}
+
+	/** Append a String <code>s</code> to the output.  <code>s</code>
+	 * contains no newlines. */
+	public void print(String s) throws IOException {
+		encode(s);
+		count += s.length();
+	}
+
+	/** Append the characters of <code>s</code> to the output.
+	 * <code>s</code> contains no newlines. */
+	public void print(CharSequence s) throws IOException {
+		encode(s);
+		count += s.length();
+	}
+
+	/** Append <code>len</code> characters of <code>cs</code>, starting
+	 * at <code>off</code>, to the output. */
+	public void print(char[] cs, int off, int len) throws IOException {
+		encode(cs, off, off + len);
+		count += len;
+	}
+
+	/** Start a new line. */
+	public void newLine() throws IOException {
+		room().put((byte) '\n');
+		count++;
+	}
+
+	/** Start a new line and indent it by <code>indent</code> spaces,
+	 * copying the bytes from a precomputed array. */
+	public void newLine(int indent) throws IOException {
+		count += 1 + indent;
+		int n = Math.min(indent, CACHED);
+		write(NEWLINE_SPACES, 0, n + 1);
+		for (indent -= n; indent > 0; indent -= n) {
+			n = Math.min(indent, CACHED);
+			write(NEWLINE_SPACES, 1, n);
+		}
+	}
+
+	/** Append a line, ending with a <code>'\n'</code>, to the output. */
+	public void printLine(char[] cs, int off, int len) throws IOException {
+		encode(cs, off, off + len);
+		count += len;
+	}
+
+	/** Closes this backend, writing all buffered output to the stream
+	 * before closing it. */
+	public void close() throws IOException {
+		drain();
+		out.close();
+	}
+
+	/** Flushes any buffered output */
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/** Gets called to record a <code>mark()</code> call in the input. */
+	public void mark(Object o) {
+		return;
+	}
+
+	/** Returns the number of characters written through this backend.*/
+	public long count() {
+		return count;
+	}
+
+	/** Returns the available space per line */
+	public int lineWidth() {
+		return lineWidth;
+	}
+
+	/** Returns the space required to print the String <code>s</code> */
+	public int measure(String s) {
+		return s.length();
+	}
+
+	/** Returns the space required to print the characters of
+	 * <code>s</code> */
+	public int measure(CharSequence s) {
+		return s.length();
+	}
+
+	/** Returns the space required to print <code>len</code> characters
+	 * of <code>cs</code> */
+	public int measure(char[] cs, int off, int len) {
+		return len;
+	}
+
+	/** Hand on the bytes encoded into <code>full</code>, which has no
+	 * more room for the next character, and return a buffer to encode
+	 * the following output into.  This writes the buffer to the stream
+	 * and returns it cleared.
+	 * @param full the buffer, or null if there was none
+	 * @return a buffer with room for at least 4 bytes
+	 */
+	ByteBuffer next(ByteBuffer full) throws IOException {
+		out.write(full.array(), full.arrayOffset(), full.position());
+		full.clear();
+		return full;
+	}
+
+	/** Return the buffer, after getting a new one if it is full. */
+	private ByteBuffer room() throws IOException {
+		if (buf == null || !buf.hasRemaining()) {
+			buf = next(buf);
+		}
+		return buf;
+	}
+
+	/** Encode the characters of <code>s</code> into the buffer. */
+	private void encode(CharSequence s) throws IOException {
+		int n = s.length();
+		int i = 0;
+		while (i < n) {
+			ByteBuffer b = room();
+			/* ASCII characters, as many as fit into the buffer */
+			int end = Math.min(n, i + b.remaining());
+			int p = b.position();
+			char c;
+			if (b.hasArray()) {
+				byte[] a = b.array();
+				int o = b.arrayOffset();
+				while (i < end && (c = s.charAt(i)) < 0x80) {
+					a[o + p++] = (byte) c;
+					i++;
+				}
+			} else {
+				while (i < end && (c = s.charAt(i)) < 0x80) {
+					b.put(p++, (byte) c);
+					i++;
+				}
+			}
+			b.position(p);
+			if (i < end) {
+				encode(CharBuffer.wrap(s, i, n));
+				return;
+			}
+		}
+	}
+
+	/** Encode the characters of <code>cs</code> from <code>i</code> up
+	 * to, excluding, <code>n</code> into the buffer. */
+	private void encode(char[] cs, int i, int n) throws IOException {
+		while (i < n) {
+			ByteBuffer b = room();
+			int end = Math.min(n, i + b.remaining());
+			int p = b.position();
+			char c;
+			if (b.hasArray()) {
+				byte[] a = b.array();
+				int o = b.arrayOffset();
+				while (i < end && (c = cs[i]) < 0x80) {
+					a[o + p++] = (byte) c;
+					i++;
+				}
+			} else {
+				while (i < end && (c = cs[i]) < 0x80) {
+					b.put(p++, (byte) c);
+					i++;
+				}
+			}
+			b.position(p);
+			if (i < end) {
+				encode(CharBuffer.wrap(cs, i, n - i));
+				return;
+			}
+		}
+	}
+
+	/** Encode the rest of a text, starting with a character which is
+	 * not ASCII, into the buffer, getting new buffers as they fill. */
+	private void encode(CharBuffer in) throws IOException {
+		encoder.reset();
+		while (encoder.encode(in, room(), true).isOverflow()) {
+			buf = next(buf);
+		}
+		while (encoder.flush(room()).isOverflow()) {
+			buf = next(buf);
+		}
+	}
+
+	/** Append <code>len</code> bytes of <code>b</code>, starting at
+	 * <code>off</code>, to the buffer. */
+	private void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			ByteBuffer d = room();
+			int n = Math.min(len, d.remaining());
+			d.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** Write the buffer to the stream. */
+	private void drain() throws IOException {
+		if (buf.position() > 0) {
+			next(buf);
+		}
+	}
+}
@@ -30,44 +30,175 @@ package de.uka.ilkd.pp;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Arrays;
 
 /** A {@link Backend} which writes all output to a java.io.Writer.
  * The {@link #mark(Object o)} method does nothing in this implementation.
  * There is a method {@link #count()} which returns the number of characters
  * written by this so far.
+ *
+ * <p>By default, every call is passed on to the Writer at once, which
+ * is fine for a {@link java.io.BufferedWriter}.  For an unbuffered
+ * Writer, a {@link FlushPolicy} may be chosen, with which the output is
+ * collected in a buffer and written in larger pieces.
  */
 
 public class WriterBackend implements Backend<IOException> {
 
+    /** An enum type to choose when output collected by a WriterBackend
+     * is written to its Writer.
+     * @since 1.0.1 */
+    public static enum FlushPolicy {
+	/** Every call is passed on at once, without a buffer */
+	PASS_THROUGH,
+	/** The output is written whenever the buffer is full */
+	CHARS,
+	/** The output is written at the end of every line, and when the
+	 * buffer is full */
+	LINES,
+	/** The output is only written on {@link WriterBackend#flush()} and
+	 * {@link WriterBackend#close()}, the buffer grows as needed */
+	EXPLICIT
+    }
+
+    /** The default size of the buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
     protected Writer out;
     protected int lineWidth;
-    protected int count=0;
+    protected long count=0;
+
+    /** When the buffered output is written */
+    private final FlushPolicy policy;
+
+    /** The output not yet written to <code>out</code>, or null with
+     * {@link FlushPolicy#PASS_THROUGH} */
+    private char[] pending;
+
+    /** The number of characters in <code>pending</code> */
+    private int length = 0;
 
     public WriterBackend(Writer w,int lineWidth) {
+	this(w, lineWidth, FlushPolicy.PASS_THROUGH, 0);
+    }
+
+    /** Create a new WriterBackend which collects its output in a buffer
+     * of <code>bufferSize</code> characters and writes it to
+     * <code>w</code> as chosen by <code>policy</code>.
+     * @param w the Writer to write to
+     * @param lineWidth the maximum line width
+     * @param policy when the buffered output is written
+     * @param bufferSize the size of the buffer, ignored with
+     *        {@link FlushPolicy#PASS_THROUGH}, the initial size with
+     *        {@link FlushPolicy#EXPLICIT}
+     * @throws IllegalArgumentException if <code>bufferSize</code> is not
+     *         positive and a buffer is needed
+     * @since 1.0.1 */
+    public WriterBackend(Writer w, int lineWidth, FlushPolicy policy,
+	    int bufferSize) {
 	this.out = w;
 	this.lineWidth = lineWidth;
+	this.policy = policy;
+	if (policy != FlushPolicy.PASS_THROUGH) {
+	    if (bufferSize <= 0) {
+		throw new IllegalArgumentException("bufferSize must be positive");
+	    }
+	    pending = new char[bufferSize];
+	}
+    }
+
+    /** Returns when the output is written to the Writer.
+     * @since 1.0.1 */
+    public FlushPolicy getFlushPolicy() {
+	return policy;
     }
 
     /** Append a String <code>s</code> to the output.  <code>s</code> 
      * contains no newlines. */
     public void print(String s) throws IOException {
-	out.write(s);
+	int n = s.length();
+	if (pending == null) {
+	    out.write(s);
+	} else if (reserve(n)) {
+	    s.getChars(0, n, pending, length);
+	    length += n;
+	} else {
+	    out.write(s);
+	}
+	count+=measure(s);
+    }
+
+    /** Append the characters of <code>s</code> to the output.
+     * <code>s</code> contains no newlines. */
+    public void print(CharSequence s) throws IOException {
+	int n = s.length();
+	if (pending == null) {
+	    out.append(s);
+	} else if (reserve(n)) {
+	    if (s instanceof String) {
+		((String) s).getChars(0, n, pending, length);
+	    } else {
+		for (int i = 0; i < n; i++) {
+		    pending[length + i] = s.charAt(i);
+		}
+	    }
+	    length += n;
+	} else {
+	    out.append(s);
+	}
 	count+=measure(s);
     }
 
+    /** Append <code>len</code> characters of <code>buf</code>, starting
+     * at <code>off</code>, to the output. */
+    public void print(char[] buf, int off, int len) throws IOException {
+	write(buf, off, len);
+	count+=measure(buf, off, len);
+    }
+
     /** Start a new line. */
     public void newLine() throws IOException {
-	out.write('\n');
+	if (pending == null) {
+	    out.write('\n');
+	} else {
+	    reserve(1);
+	    pending[length++] = '\n';
+	    endLine();
+	}
 	count++;
     }
 
-    /** Closes this backend */
+    /** Start a new line and indent it by <code>indent</code> spaces,
+     * with a single write unless the indentation is very deep. */
+    public void newLine(int indent) throws IOException {
+	int n = Math.min(indent, Indentation.CACHED);
+	write(Indentation.NEWLINE_SPACES, 0, n + 1);
+	count += n + 1;
+	for (indent -= n; indent > 0; indent -= n) {
+	    n = Math.min(indent, Indentation.CACHED);
+	    write(Indentation.NEWLINE_SPACES, 1, n);
+	    count += n;
+	}
+	endLine();
+    }
+
+    /** Append a line, ending with a <code>'\n'</code>, to the output,
+     * with a single write. */
+    public void printLine(char[] buf, int off, int len) throws IOException {
+	write(buf, off, len);
+	count+=measure(buf, off, len - 1) + 1;
+	endLine();
+    }
+
+    /** Closes this backend, writing the buffered output first */
     public void close() throws IOException {
+	drain();
 	out.close();
     }
 
     /** Flushes any buffered output */
     public void flush() throws IOException {
+	drain();
 	out.flush();
     }
 
@@ -77,7 +208,7 @@ public class WriterBackend implements Backend<IOException> {
     }
 
     /** Returns the number of characters written through this backend.*/
-    public int count() {
+    public long count() {
 	return count;
     }
 
@@ -91,4 +222,60 @@ public class WriterBackend implements Backend<IOException> {
 	return s.length();
     }
 
+    /** Returns the space required to print the characters of
+     * <code>s</code> */
+    public int measure(CharSequence s) {
+	return s.length();
+    }
+
+    /** Returns the space required to print <code>len</code> characters
+     * of <code>buf</code> */
+    public int measure(char[] buf, int off, int len) {
+	return len;
+    }
+
+
+    /** Append <code>len</code> characters of <code>cs</code>, starting
+     * at <code>off</code>, to the buffer, or write them if there is
+     * none or they do not fit. */
+    private void write(char[] cs, int off, int len) throws IOException {
+	if (pending != null && reserve(len)) {
+	    System.arraycopy(cs, off, pending, length, len);
+	    length += len;
+	} else {
+	    out.write(cs, off, len);
+	}
+    }
+
+    /** Make room for <code>n</code> more characters in the buffer,
+     * writing or growing it as the policy says.  Returns false if
+     * the characters should rather be written directly, after the
+     * buffer. */
+    private boolean reserve(int n) throws IOException {
+	if (length + n <= pending.length) {
+	    return true;
+	}
+	if (policy == FlushPolicy.EXPLICIT) {
+	    pending = Arrays.copyOf(pending,
+		    Math.max(2 * pending.length, length + n));
+	    return true;
+	}
+	drain();
+	return n <= pending.length;
+    }
+
+    /** Write the buffer at the end of a line, if that is the policy */
+    private void endLine() throws IOException {
+	if (policy == FlushPolicy.LINES) {
+	    drain();
+	}
+    }
+
+    /** Write the buffered output to <code>out</code> */
+    private void drain() throws IOException {
+	if (length > 0) {
+	    out.write(pending, 0, length);
+	    length = 0;
+	}
+    }
 }
@@ -86,6 +86,21 @@ public class TestDataLayouter extends TestCase
     	assertEquals("List wide","[a, b, c]",wideBack.getString());
     }
 
+    public void testListUsesOverride() {
+    	DataLayouter<NoExceptions> quoting =
+    		new DataLayouter<NoExceptions>(wideBack,2) {
+    			@Override
+    			public DataLayouter<NoExceptions> print(String s) {
+    				return super.print("'" + s + "'");
+    			}
+    		};
+    	List<Object> l = new ArrayList<Object>();
+    	l.add("a");
+    	l.add(Integer.valueOf(1));
+    	quoting.print(l);
+    	assertEquals("List override","'[''a'',' '1'']'",wideBack.getString());
+    }
+
     public void testNarrowArray() {
     	int[] a = new int[]{1,2,3};
     	Object o = a;
@@ -0,0 +1,177 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp.tests;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import de.uka.ilkd.pp.Backend;
+import de.uka.ilkd.pp.DataLayouter;
+import de.uka.ilkd.pp.Doc;
+import de.uka.ilkd.pp.DocBuilder;
+import de.uka.ilkd.pp.NoExceptions;
+import de.uka.ilkd.pp.PrettyPrintable;
+import de.uka.ilkd.pp.StringBackend;
+import de.uka.ilkd.pp.UnbalancedBlocksException;
+import junit.framework.TestCase;
+
+/** Unit-Test the {@link Doc} class. */
+
+public class TestDoc extends TestCase {
+
+	public TestDoc(String name) {
+		super(name);
+	}
+
+	public class Expr implements PrettyPrintable {
+		Object a;
+		String op;
+		Object b;
+
+		public Expr(Object a, String op, Object b) {
+			this.a = a;
+			this.op = op;
+			this.b = b;
+		}
+
+		public <Exc extends Exception> void prettyPrint(DataLayouter<Exc> l)
+		throws Exc {
+			int ind = op.length()+1;
+			l.beginC(ind).ind(0,0).print(a).brk(1,-ind)
+				.print(op).print(" ").print(b).end();
+		}
+	}
+
+	private Object data() {
+		SortedMap<String,Object> m = new TreeMap<String,Object>();
+		m.put("a", Arrays.asList(1, 2, 3));
+		m.put("b", new Expr(new Expr("a","and","b"),
+							"or",
+							new Expr("c","and","d")));
+		m.put("c", "some longer text");
+		return m;
+	}
+
+	/** Lay out <code>o</code> using a DataLayouter */
+	private String layout(Object o, int lineWidth) {
+		StringBackend back = new StringBackend(lineWidth);
+		new DataLayouter<NoExceptions>(back, 2).print(o).close();
+		return back.getString();
+	}
+
+	public void testSameAsLayouter() {
+		Doc d = new DocBuilder().print(data()).build();
+		for (int w = 1; w < 60; w++) {
+			StringBackend back = new StringBackend(w);
+			d.render(back);
+			assertEquals("width " + w, layout(data(), w), back.getString());
+		}
+	}
+
+	public void testFlatWidth() {
+		Doc d = new DocBuilder().print(Arrays.asList("ab", "c")).build();
+		assertEquals("flat width", "[ab, c]".length(), d.flatWidth());
+		Doc n = Doc.blockC(0, Doc.text("a"), Doc.nl(), Doc.text("b"));
+		assertEquals("forced break", Doc.INFINITE_WIDTH, n.flatWidth());
+	}
+
+	public void testFactories() {
+		Doc d = Doc.concat(Doc.text("AB"),
+				Doc.blockC(1, Doc.text("DE"), Doc.brk(0, 0),
+						Doc.text("GH"), Doc.brk(0, -1), Doc.text("I")));
+		StringBackend back = new StringBackend(6);
+		d.render(back);
+		assertEquals("indent from current pos",
+				"ABDE\n   GH\n  I", back.getString());
+	}
+
+	public void testBreakOutsideBlock() {
+		try {
+			Doc.concat(Doc.text("A"), Doc.brk(1, 0))
+				.render(new StringBackend(80));
+			fail("break outside block");
+		} catch (UnbalancedBlocksException e) {
+			// expected
+		}
+	}
+
+	public void testUnbalancedBuild() {
+		DocBuilder b = new DocBuilder();
+		b.beginC().print("A");
+		try {
+			b.build();
+			fail("unbalanced");
+		} catch (UnbalancedBlocksException e) {
+			// expected
+		}
+	}
+
+	/** A backend which records marks in the output */
+	class MarkingBackend extends StringBackend
+	implements Backend<NoExceptions>
+	{
+		public MarkingBackend(int lineWidth) {
+			super(lineWidth);
+		}
+
+		public void mark(Object o) {
+			print("<" + o + ">");
+		}
+
+		public int measure(String s) {
+			return s.startsWith("<") ? 0 : s.length();
+		}
+	}
+
+	public void testParallel() {
+		List<Object> l = new ArrayList<Object>();
+		for (int i = 0; i < 5000; i++) {
+			l.add(i % 7 == 0 ? data() : Arrays.asList(i, "x" + i));
+		}
+		Map<String,Object> m = new TreeMap<String,Object>();
+		m.put("key", l);
+		m.put("other", Arrays.asList("a", "b"));
+
+		DocBuilder b = new DocBuilder(new MarkingBackend(80), 2);
+		b.beginC(0).mark("start").print(m).mark("end").end();
+		Doc d = b.build();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int w : new int[] {1, 20, 80}) {
+				MarkingBackend seq = new MarkingBackend(w);
+				d.render(seq);
+				MarkingBackend par = new MarkingBackend(w);
+				d.render(par, pool);
+				assertEquals("width " + w, seq.getString(), par.getString());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
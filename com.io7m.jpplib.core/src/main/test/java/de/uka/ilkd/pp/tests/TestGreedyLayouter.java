@@ -0,0 +1,156 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp.tests;
+
+import java.util.*;
+
+import de.uka.ilkd.pp.DataLayouter;
+import de.uka.ilkd.pp.GreedyLayouter;
+import de.uka.ilkd.pp.LayouterConfig;
+import de.uka.ilkd.pp.LayouterPool;
+import de.uka.ilkd.pp.NoExceptions;
+import de.uka.ilkd.pp.StringBackend;
+import de.uka.ilkd.pp.UnbalancedBlocksException;
+import junit.framework.TestCase;
+
+/** Unit-Test the {@link GreedyLayouter} class. */
+
+public class TestGreedyLayouter extends TestCase {
+
+	/** A backend to remember the result in */
+	StringBackend narrowBack;
+	/** A backend to remember the result in */
+	StringBackend wideBack;
+	/** A backend to remember the result in */
+	StringBackend tenBack;
+	/** A layouter which breaks everything */
+	GreedyLayouter<NoExceptions> narrow;
+	/** A layouter which breaks nothing */
+	GreedyLayouter<NoExceptions> wide;
+	/** A layouter with line length ten. */
+	GreedyLayouter<NoExceptions> ten;
+
+	public TestGreedyLayouter(String name) {
+		super(name);
+	}
+
+	public void setUp() {
+		narrowBack = new StringBackend(1);
+		wideBack   = new StringBackend(10000);
+		tenBack    = new StringBackend(10);
+		narrow = new GreedyLayouter<NoExceptions>(narrowBack,2);
+		wide   = new GreedyLayouter<NoExceptions>(wideBack,2);
+		ten    = new GreedyLayouter<NoExceptions>(tenBack,2);
+	}
+
+	private Object data() {
+		SortedMap<String,Object> m = new TreeMap<String,Object>();
+		m.put("a", Arrays.asList(1, 2, 3));
+		m.put("b", new int[] { 4, 5 });
+		m.put("c", "some longer text");
+		return m;
+	}
+
+	public void testWideSameAsLayouter() {
+		StringBackend b = new StringBackend(10000);
+		new DataLayouter<NoExceptions>(b, 2).print(data()).close();
+		wide.print(data()).close();
+		assertEquals("fits", b.getString(), wideBack.getString());
+	}
+
+	public void testNarrowList() {
+		narrow.print(Arrays.asList("a", "b", "c")).close();
+		assertEquals("List narrow","[a,\n b,\n c]",narrowBack.getString());
+	}
+
+	public void testFill() {
+		ten.beginI(2);
+		for (String w : "aa bbb c dddd eee ff g".split(" ")) {
+			ten.print(w).brk(1,0);
+		}
+		ten.end().close();
+		assertEquals("filled", "aa bbb c\n  dddd eee\n  ff g ",
+				tenBack.getString());
+	}
+
+	public void testConsistentStaysBroken() {
+		ten.beginC(0).print("aaaa").brk(1,0).print("bbbb")
+		.brk(1,0).print("cc").brk(1,0).print("d").end().close();
+		assertEquals("consistent", "aaaa bbbb\ncc\nd", tenBack.getString());
+	}
+
+	public void testBlockAfterBreak() {
+		ten.beginI(0).print("aaaaaa").brk(1,0)
+		.beginC(1).print("bbbb").brk(1,0).print("c").end().end().close();
+		assertEquals("indented from new line", "aaaaaa\nbbbb c",
+				tenBack.getString());
+	}
+
+	public void testForcedNewline() {
+		wide.beginC(0).print("a").nl().print("b").end().close();
+		assertEquals("nl", "a\nb", wideBack.getString());
+	}
+
+	public void testUnbalanced() {
+		try {
+			wide.beginC(0).print("a").close();
+			fail("unbalanced");
+		} catch (UnbalancedBlocksException e) {
+			// expected
+		}
+	}
+
+	public void testConfig() {
+		LayouterConfig<NoExceptions> c = new LayouterConfig<NoExceptions>(
+				10, 2, StringBackend::new, true);
+		DataLayouter<NoExceptions> l = c.createDataLayouter();
+		assertTrue("greedy", l instanceof GreedyLayouter);
+		l.print(Arrays.asList("aaaa", "bbbb", "cccc")).close();
+		assertEquals("greedy list", "[aaaa,\n bbbb,\n cccc]",
+				((StringBackend) l.getBackend()).getString());
+	}
+
+	public void testPool() {
+		LayouterPool<NoExceptions> pool = new LayouterPool<NoExceptions>(
+				new LayouterConfig<NoExceptions>(
+						10, 2, StringBackend::new, true), 1);
+		DataLayouter<NoExceptions> l = pool.acquire();
+		assertTrue("greedy", l instanceof GreedyLayouter);
+		l.print(Arrays.asList("aaaa", "bbbb", "cccc")).close();
+		assertEquals("greedy list", "[aaaa,\n bbbb,\n cccc]",
+				((StringBackend) l.getBackend()).getString());
+		pool.release(l);
+		DataLayouter<NoExceptions> m = pool.acquire();
+		assertSame("reused", l, m);
+		m.print(Arrays.asList("aaaa", "bbbb", "cccc")).close();
+		assertEquals("greedy after reset", "[aaaa,\n bbbb,\n cccc]",
+				((StringBackend) m.getBackend()).getString());
+		pool.release(m);
+	}
+}
@@ -0,0 +1,155 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.uka.ilkd.pp.Doc;
+import de.uka.ilkd.pp.IncrementalRenderer;
+import de.uka.ilkd.pp.LineRangeBackend;
+import de.uka.ilkd.pp.NoExceptions;
+import de.uka.ilkd.pp.StringBackend;
+import junit.framework.TestCase;
+
+/** Unit-Test the {@link IncrementalRenderer} class. */
+
+public class TestIncrementalRenderer extends TestCase {
+
+	public TestIncrementalRenderer(String name) {
+		super(name);
+	}
+
+	/** A backend keeping a list of lines, and remembering the last
+	 * replaced range. */
+	class LineBackend extends StringBackend 
+	implements LineRangeBackend<NoExceptions>
+	{
+		List<StringBuilder> lines = new ArrayList<StringBuilder>();
+		int cursor = 0;
+		int replacedFrom = -1;
+		int replacedTo = -1;
+
+		public LineBackend(int lineWidth) {
+			super(lineWidth);
+			lines.add(new StringBuilder());
+		}
+
+		public void print(String s) {
+			lines.get(cursor).append(s);
+		}
+
+		public void newLine() {
+			lines.add(++cursor, new StringBuilder());
+		}
+
+		public void replaceLines(int from, int to) {
+			lines.subList(from, to).clear();
+			lines.add(from, new StringBuilder());
+			cursor = from;
+			replacedFrom = from;
+			replacedTo = to;
+		}
+
+		public String getString() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < lines.size(); i++) {
+				if (i > 0) {
+					sb.append('\n');
+				}
+				sb.append(lines.get(i));
+			}
+			return sb.toString();
+		}
+	}
+
+	private Doc item(String s) {
+		return Doc.blockI(2, Doc.text(s), Doc.text("("), Doc.brk(0, 0),
+				Doc.text("arg"), Doc.text(","), Doc.brk(1, 0),
+				Doc.text("arg"), Doc.text(")"));
+	}
+
+	private Doc list(Doc[] items) {
+		Doc[] contents = new Doc[2 * items.length];
+		for (int i = 0; i < items.length; i++) {
+			contents[2 * i] = i == 0 ? Doc.EMPTY : Doc.brk(1, 0);
+			contents[2 * i + 1] = items[i];
+		}
+		return Doc.concat(Doc.text("["), Doc.blockC(0, contents),
+				Doc.text("]"));
+	}
+
+	private String render(Doc d, int width) {
+		StringBackend b = new StringBackend(width);
+		d.render(b);
+		return b.getString();
+	}
+
+	public void testEdit() {
+		Doc[] items = new Doc[200];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = item("f" + i);
+		}
+		LineBackend back = new LineBackend(16);
+		IncrementalRenderer<NoExceptions> r =
+			new IncrementalRenderer<NoExceptions>(back);
+		Doc d = list(items);
+		r.render(d);
+		assertEquals("initial", render(d, 16), back.getString());
+		assertEquals("line count", 200, r.getLineCount());
+
+		items[100] = item("a_much_longer_name");
+		d = list(items);
+		r.render(d);
+		assertEquals("edited", render(d, 16), back.getString());
+		assertEquals("from", 100, back.replacedFrom);
+		assertEquals("to", 101, back.replacedTo);
+		assertEquals("line count", 201, r.getLineCount());
+
+		back.replacedFrom = -1;
+		r.render(list(items));
+		assertEquals("same output", -1, back.replacedFrom);
+	}
+
+	public void testChangedFit() {
+		LineBackend back = new LineBackend(30);
+		IncrementalRenderer<NoExceptions> r =
+			new IncrementalRenderer<NoExceptions>(back);
+		Doc[] items = { item("a"), item("b") };
+		Doc d = list(items);
+		r.render(d);
+		assertEquals("fits", "[a(arg, arg) b(arg, arg)]", back.getString());
+		items[1] = item("bbbbbbbb");
+		d = list(items);
+		r.render(d);
+		assertEquals("broken", render(d, 30), back.getString());
+		assertEquals("from", 0, back.replacedFrom);
+		assertEquals("to", 1, back.replacedTo);
+	}
+}
@@ -29,9 +29,32 @@
 package de.uka.ilkd.pp.tests;
 
 import de.uka.ilkd.pp.Backend;
+import de.uka.ilkd.pp.ByteBufferPool;
+import de.uka.ilkd.pp.ChannelBackend;
+import de.uka.ilkd.pp.DataLayouter;
+import de.uka.ilkd.pp.GreedyLayouter;
 import de.uka.ilkd.pp.Layouter;
+import de.uka.ilkd.pp.LayouterConfig;
+import de.uka.ilkd.pp.LayouterPool;
+import de.uka.ilkd.pp.MappedFileBackend;
 import de.uka.ilkd.pp.NoExceptions;
+import de.uka.ilkd.pp.SegmentedStringBackend;
 import de.uka.ilkd.pp.StringBackend;
+import de.uka.ilkd.pp.Utf8StreamBackend;
+import de.uka.ilkd.pp.WriterBackend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import junit.framework.TestCase;
 
 /** Unit-Test the {@link Layouter} class. */
@@ -216,5 +239,803 @@ public class TestLayouter extends TestCase {
 		assertEquals("marks pos 10",18,marks[9]);
 		assertEquals("marks pos 11",18,marks[10]);
 	}
-}
 
+	public void testLongBufferedBlock() {
+		StringBuilder expectWide = new StringBuilder("[");
+		StringBuilder expectSix = new StringBuilder("[");
+		wide.print("[").beginC(0);
+		six.print("[").beginC(0);
+		for (int i = 0; i < 1000; i++) {
+			if (i > 0) {
+				wide.print(",").brk(1, 0);
+				six.print(",").brk(1, 0);
+				expectWide.append(", ");
+				expectSix.append(",\n ");
+			}
+			wide.beginI().print("x").end();
+			six.beginI().print("x").end();
+			expectWide.append("x");
+			expectSix.append("x");
+		}
+		wide.print("]").end().close();
+		six.print("]").end().close();
+		expectWide.append("]");
+		expectSix.append("]");
+		assertEquals("long block fits", expectWide.toString(),
+				wideBack.getString());
+		assertEquals("long block broken", expectSix.toString(),
+				sixBack.getString());
+	}
+
+	public void testDeepNesting() {
+		for (int i = 0; i < 100; i++) {
+			wide.beginC(0).print("(");
+		}
+		for (int i = 0; i < 100; i++) {
+			wide.print(")").end();
+		}
+		wide.close();
+		assertEquals("deep nesting", 200, wideBack.getString().length());
+	}
+
+	public void testReset() {
+		six.beginC().print("A").beginC()
+		.print("B").brk(1,2)
+		.print("C").end().end().close();
+		StringBackend second = new StringBackend(10000);
+		six.reset(second);
+		assertFalse("reset unfinishes", six.isFinished());
+		six.beginC().print("A").beginI()
+		.print("B").brk(1,2)
+		.print("C").brk(2,3)
+		.print("D").end().print("E").end().close();
+		assertEquals("reset to wide backend","AB C  DE",
+				second.getString());
+	}
+
+	public void testResetDiscardsPending() {
+		wide.beginC().print("A").brk().print("B");
+		wide.reset(sixBack);
+		wide.print("C").close();
+		assertEquals("nothing pending after reset","",
+				wideBack.getString());
+		assertEquals("output after reset","C",
+				sixBack.getString());
+	}
+
+	public void testPool() {
+		LayouterPool<NoExceptions> pool = new LayouterPool<NoExceptions>(
+				new LayouterConfig<NoExceptions>(6, 2, StringBackend::new), 1);
+		DataLayouter<NoExceptions> l = pool.acquire();
+		l.beginC().print("A").beginI()
+		.print("B").brk(1,2)
+		.print("C").brk(2,3)
+		.print("D").end().print("E").end().close();
+		assertEquals("pooled","AB C\n      DE",
+				((StringBackend) l.getBackend()).getString());
+		pool.release(l);
+		assertEquals("idle", 1, pool.idleCount());
+		DataLayouter<NoExceptions> m = pool.acquire();
+		assertSame("reused", l, m);
+		m.print("X").close();
+		assertEquals("fresh backend","X",
+				((StringBackend) m.getBackend()).getString());
+		pool.release(m);
+		pool.release(new DataLayouter<NoExceptions>(new StringBackend(6), 2));
+		assertEquals("bounded", 1, pool.idleCount());
+	}
+
+	public void testPoolRestoresDefaults() {
+		LayouterPool<NoExceptions> pool = new LayouterPool<NoExceptions>(
+				new LayouterConfig<NoExceptions>(20, 2, StringBackend::new), 1);
+		DataLayouter<NoExceptions> l = pool.acquire();
+		l.setTabWidth(4);
+		l.setTrailingSpaces(Layouter.TrailingSpaces.TRIM);
+		l.setLookaheadLimit(10, 100);
+		l.setLatencyLimit(1, TimeUnit.SECONDS, 10);
+		l.setLookaheadSpill(100, null);
+		l.beginC(8).print("a").nl().print("b").end().close();
+		assertEquals("tabs", "a\n\t\tb",
+				((StringBackend) l.getBackend()).getString());
+		pool.release(l);
+		DataLayouter<NoExceptions> m = pool.acquire();
+		assertSame("reused", l, m);
+		assertEquals("tab width", 0, m.getTabWidth());
+		assertEquals("trailing spaces", Layouter.TrailingSpaces.KEEP,
+				m.getTrailingSpaces());
+		assertEquals("token limit", Integer.MAX_VALUE,
+				m.getLookaheadTokenLimit());
+		assertEquals("size limit", Integer.MAX_VALUE,
+				m.getLookaheadSizeLimit());
+		assertEquals("latency", Long.MAX_VALUE,
+				m.getLatencyTimeLimit(TimeUnit.NANOSECONDS));
+		assertEquals("spill", Integer.MAX_VALUE,
+				m.getLookaheadSpillThreshold());
+		assertFalse("off heap", m.isOffHeapLookahead());
+		m.beginC(8).print("a").nl().print("b").end().close();
+		assertEquals("spaces", "a\n        b",
+				((StringBackend) m.getBackend()).getString());
+		pool.release(m);
+	}
+
+	/** The first break is resolved, not broken, when the second one is
+	 * added.  It used to stay in the queue, so that its material was
+	 * counted against the line of the second break, which was then
+	 * forced, giving "abcdefghx\n\n        y". */
+	public void testResolvedBreakNotForced() {
+		six.print("abcdefgh").beginI(0).print("x")
+		.brk(1,-8).brk(0,0).print("y").end().close();
+		assertEquals("resolved break printed before forcing",
+				"abcdefghx\ny", sixBack.getString());
+	}
+
+	/** The inner block is too large for the space left and is broken.
+	 * Its forced size used to be twice the line width, which fit at the
+	 * negative position after the first break, giving
+	 * "abcdefg\naaaaaaaaa bbbbbbbbb". */
+	public void testForcedBlockLeftOfMargin() {
+		six.beginC(0).print("abcdefg").brk(0,-10)
+		.beginC(0).print("aaaaaaaaa").brk(1,0).print("bbbbbbbbb").end()
+		.end().close();
+		assertEquals("forced block broken at negative position",
+				"abcdefg\naaaaaaaaa\nbbbbbbbbb", sixBack.getString());
+	}
+
+	public void testMultiWidth() {
+		StringBackend narrowMulti = new StringBackend(1);
+		StringBackend sixMulti = new StringBackend(6);
+		StringBackend wideMulti = new StringBackend(10000);
+		Layouter<NoExceptions> multi = new Layouter<NoExceptions>(
+				Arrays.asList(narrowMulti, sixMulti, wideMulti), 2);
+		for (Layouter<NoExceptions> l : Arrays.asList(narrow, six, wide,
+				multi)) {
+			l.beginC().print("A").beginI()
+			.print("B").brk(1,2)
+			.print("C").brk(2,3)
+			.print("D").end().print("E").brk(1,0)
+			.beginC(0);
+			for (int i = 0; i < 50; i++) {
+				l.print("xy").brk(1,0);
+			}
+			l.end().end().close();
+		}
+		assertEquals("narrow", narrowBack.getString(),
+				narrowMulti.getString());
+		assertEquals("six", sixBack.getString(), sixMulti.getString());
+		assertEquals("wide", wideBack.getString(), wideMulti.getString());
+		assertEquals("backends",
+				Arrays.asList(narrowMulti, sixMulti, wideMulti),
+				multi.getBackends());
+	}
+
+	public void testLookaheadTokenLimit() {
+		wide.setLookaheadLimit(10, Integer.MAX_VALUE);
+		assertEquals("token limit", 10, wide.getLookaheadTokenLimit());
+		wide.beginC(0);
+		for (int i = 0; i < 100; i++) {
+			wide.beginC(0).print("x").end().brk(1, 0);
+		}
+		wide.end().close();
+		assertEquals("forced breaks", 100,
+				wideBack.getString().split("\n").length);
+		assertTrue("peak tokens", wide.getPeakLookaheadTokens() <= 10);
+	}
+
+	/** Blocks begun without any text in between are counted against
+	 * the limit as well. */
+	public void testLookaheadTokenLimitNested() {
+		wide.setLookaheadLimit(10, 100);
+		for (int i = 0; i < 100000; i++) {
+			wide.beginC(0);
+		}
+		assertTrue("peak tokens " + wide.getPeakLookaheadTokens(),
+				wide.getPeakLookaheadTokens() > 0
+				&& wide.getPeakLookaheadTokens() <= 10);
+		wide.print("x");
+		for (int i = 0; i < 100000; i++) {
+			wide.end();
+		}
+		wide.close();
+		assertEquals("output", "x", wideBack.getString());
+	}
+
+	public void testLookaheadSizeLimit() {
+		wide.setLookaheadLimit(Integer.MAX_VALUE, 7);
+		wide.beginC(0).print("aa").brk(1,0).print("bb")
+		.brk(1,0).print("cc").brk(1,0).print("dd").end().close();
+		assertEquals("forced breaks", "aa\nbb\ncc\ndd", wideBack.getString());
+		assertTrue("peak size", wide.getPeakLookaheadSize() <= 7);
+		assertEquals("no size limit", Integer.MAX_VALUE,
+				six.getLookaheadSizeLimit());
+	}
+
+	/** Send a list long enough that everything is pending until the
+	 * end to <code>l</code>. */
+	private void longList(Layouter<NoExceptions> l) {
+		l.print("[").beginC(0);
+		for (int i = 0; i < 1000; i++) {
+			l.beginI().print("item").mark(null).brk(1,0)
+			.print(String.valueOf(i)).end().print(",").brk(1,0);
+		}
+		l.print("]").end().close();
+	}
+
+	public void testOffHeapLookahead() {
+		StringBackend heapBack = new StringBackend(20000);
+		Layouter<NoExceptions> heap =
+			new Layouter<NoExceptions>(heapBack, 2);
+		StringBackend offHeapBack = new StringBackend(20000);
+		Layouter<NoExceptions> offHeap =
+			new Layouter<NoExceptions>(offHeapBack, 2);
+		offHeap.setOffHeapLookahead(true);
+		assertTrue("off heap", offHeap.isOffHeapLookahead());
+		longList(heap);
+		longList(offHeap);
+		assertEquals("same output", heapBack.getString(),
+				offHeapBack.getString());
+		assertTrue("buffered", offHeap.getPeakLookaheadTokens() > 5000);
+		try {
+			six.reset(sixBack);
+			six.beginC();
+			six.setOffHeapLookahead(true);
+			fail("switched with pending material");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	public void testLookaheadSpill() {
+		StringBackend heapBack = new StringBackend(20000);
+		Layouter<NoExceptions> heap =
+			new Layouter<NoExceptions>(heapBack, 2);
+		StringBackend spillBack = new StringBackend(20000);
+		Layouter<NoExceptions> spill =
+			new Layouter<NoExceptions>(spillBack, 2);
+		spill.setLookaheadSpill(100, null);
+		assertEquals("threshold", 100, spill.getLookaheadSpillThreshold());
+		longList(heap);
+		longList(spill);
+		assertEquals("same output", heapBack.getString(),
+				spillBack.getString());
+		spill.reset(spillBack = new StringBackend(6));
+		longList(spill);
+		longList(six);
+		assertEquals("narrow output after reset", sixBack.getString(),
+				spillBack.getString());
+	}
+
+	/** Nest blocks so deeply that the oldest of them keep being sent
+	 * while new ones arrive. */
+	private static void deepBlocks(Layouter<NoExceptions> l, int n,
+			long[] largest) {
+		for (int i = 0; i < n; i++) {
+			l.beginIInd(0).print("x").brk(0,0);
+			largest[0] = Math.max(largest[0], l.getLookaheadSpillFileSize());
+		}
+		for (int i = 0; i < n; i++) {
+			l.end();
+		}
+		l.close();
+	}
+
+	/** The files are compacted while material flows through the
+	 * lookahead, so they do not grow with the length of the output. */
+	public void testLookaheadSpillCompacts() {
+		StringBackend heapBack = new StringBackend(2000);
+		Layouter<NoExceptions> heap = new Layouter<NoExceptions>(heapBack, 2);
+		StringBackend spillBack = new StringBackend(2000);
+		Layouter<NoExceptions> spill =
+			new Layouter<NoExceptions>(spillBack, 2);
+		spill.setLookaheadSpill(100, null);
+		long[] largest = new long[1];
+		deepBlocks(heap, 100000, largest);
+		assertEquals("no files", 0, largest[0]);
+		deepBlocks(spill, 100000, largest);
+		assertEquals("same output", heapBack.getString(),
+				spillBack.getString());
+		assertTrue("spilled", spill.getPeakLookaheadTokens() > 5000);
+		assertTrue("bounded files " + largest[0], largest[0] > 0
+				&& largest[0] < 2000000);
+	}
+
+	public void testCancel() {
+		six.cancel();
+		six.beginC(0).print("aa").brk(1,0).print("bb")
+		.brk(1,0).print("cc").brk(1,0).print("dd").end().close();
+		assertEquals("filled greedily", "aa bb\ncc dd", sixBack.getString());
+		assertTrue("degraded", six.isDegraded());
+		assertEquals("degraded tokens", 3, six.getDegradedTokens());
+		six.reset(sixBack = new StringBackend(6));
+		assertFalse("reset", six.isDegraded());
+		six.beginC(0).print("aa").brk(1,0).print("bb")
+		.brk(1,0).print("cc").end().close();
+		assertEquals("consistent after reset", "aa\nbb\ncc",
+				sixBack.getString());
+	}
+
+	public void testTimeBudget() {
+		StringBackend back = new StringBackend(6);
+		Layouter<NoExceptions> l = new Layouter<NoExceptions>(back, 2);
+		l.setTimeBudget(1, TimeUnit.HOURS);
+		longList(l);
+		longList(six);
+		assertFalse("within budget", l.isDegraded());
+		assertEquals("same output", sixBack.getString(), back.getString());
+		l.reset(back = new StringBackend(6));
+		l.setTimeBudget(0, TimeUnit.NANOSECONDS);
+		longList(l);
+		assertTrue("degraded", l.isDegraded());
+		assertTrue("degraded tokens", l.getDegradedTokens() > 0);
+		assertTrue("all material", back.getString().contains("999,"));
+		assertTrue("ends block", back.getString().endsWith("]"));
+	}
+
+	public void testLatencyTokenLimit() {
+		wide.setLatencyLimit(Long.MAX_VALUE, TimeUnit.SECONDS, 4);
+		assertEquals("token limit", 4, wide.getLatencyTokenLimit());
+		wide.beginC(0).print("aa").brk(1,0).print("bb");
+		assertEquals("nothing pending yet", "", wideBack.getString());
+		wide.brk(1,0);
+		assertEquals("committed", "aa\nbb\n", wideBack.getString());
+		wide.print("cc").brk(1,0).print("dd").end().close();
+		assertEquals("block stays broken", "aa\nbb\ncc\ndd",
+				wideBack.getString());
+	}
+
+	public void testLatencyTimeLimit() {
+		wide.setLatencyLimit(0, TimeUnit.MILLISECONDS, Integer.MAX_VALUE);
+		assertEquals("time limit", 0,
+				wide.getLatencyTimeLimit(TimeUnit.NANOSECONDS));
+		wide.beginI(0).print("aa");
+		assertEquals("committed", "aa", wideBack.getString());
+		wide.brk(1,0).print("bb").end().close();
+		assertEquals("broken", "aa\nbb", wideBack.getString());
+		assertEquals("no time limit", Long.MAX_VALUE,
+				six.getLatencyTimeLimit(TimeUnit.SECONDS));
+	}
+
+	/** A backend which only counts what it gets */
+	static class CountingBackend implements Backend<NoExceptions> {
+		long chars = 0;
+		long lines = 0;
+
+		public void print(String s) {
+			chars += s.length();
+		}
+
+		public void newLine() {
+			chars++;
+			lines++;
+		}
+
+		public void close() {
+		}
+
+		public void flush() {
+		}
+
+		public void mark(Object o) {
+		}
+
+		public int lineWidth() {
+			return 80;
+		}
+
+		public int measure(String s) {
+			return s.length();
+		}
+	}
+
+	public void testLongLineSentInParts() {
+		six.beginC(0);
+		for (int i = 0; i < 1000; i++) {
+			six.print("abcdefgh");
+		}
+		assertTrue("sent before the block ends",
+				sixBack.getString().length() > 4096);
+		six.end().close();
+		assertEquals("all", 8000, sixBack.getString().length());
+	}
+
+	public void testBeyondIntSizes() {
+		char[] c = new char[1000];
+		Arrays.fill(c, 'x');
+		String big = new String(c);
+		int n = 4400000;
+		CountingBackend back = new CountingBackend();
+		Layouter<NoExceptions> l = new Layouter<NoExceptions>(back, 2);
+		l.beginC(0);
+		for (int i = 0; i < n; i++) {
+			l.print(big).brk(1,0)
+			.beginI(0).print("a").brk(1,0).print("b").end().brk(1,0);
+		}
+		l.end().close();
+		assertTrue("beyond 4G", back.chars > 4L * 1024 * 1024 * 1024);
+		assertEquals("fitting blocks unbroken", 2L * n, back.lines);
+		assertEquals("chars", 1003L * n + back.lines, back.chars);
+		assertTrue("constant lookahead", l.getPeakLookaheadTokens() < 16);
+	}
+
+	public void testNlSendsPending() {
+		wide.beginC(0).print("aa").brk(1,0).beginI(2).print("bb").nl();
+		assertEquals("sent at once", "aa\nbb\n", wideBack.getString());
+		wide.print("cc").brk(1,0).print("dd").end().brk(1,0).print("ee");
+		wide.end().close();
+		assertEquals("enclosing blocks broken",
+				"aa\nbb\n  cc dd\nee", wideBack.getString());
+		assertTrue("little pending", wide.getPeakLookaheadTokens() < 8);
+	}
+
+	/** Print through the CharSequence and char[] methods, reusing the
+	 * buffers at once. */
+	private void printChars(Layouter<NoExceptions> l) {
+		char[] buf = "xaaybb".toCharArray();
+		StringBuilder sb = new StringBuilder("cc");
+		l.print(buf, 1, 2).print(sb);
+		l.beginC(0).print(buf, 4, 2).brk(1,0);
+		buf[4] = 'z';
+		sb.setCharAt(0, 'd');
+		l.print(sb).end().print(buf, 0, 1).close();
+	}
+
+	public void testPrintChars() {
+		printChars(wide);
+		assertEquals("wide", "aaccbb dcx", wideBack.getString());
+		printChars(six);
+		assertEquals("six", "aaccbb\n    dcx", sixBack.getString());
+		StringBackend offHeapBack = new StringBackend(6);
+		Layouter<NoExceptions> offHeap =
+			new Layouter<NoExceptions>(offHeapBack, 2);
+		offHeap.setOffHeapLookahead(true);
+		printChars(offHeap);
+		assertEquals("off heap", sixBack.getString(), offHeapBack.getString());
+	}
+
+	public void testPrintAll() {
+		StringBuilder sb = new StringBuilder("bb");
+		six.printAll("aa", sb).beginC(0).printAll("cc", sb, "d").brk(1,0);
+		sb.setLength(0);
+		six.printAll("ee").end().close();
+		assertEquals("parts", "aabbccbbd\n    ee", sixBack.getString());
+	}
+
+	/** Print a list with {@link Layouter#printSeparated} to
+	 * <code>l</code>. */
+	private void separated(Layouter<NoExceptions> l) {
+		l.print("[").beginC(0)
+		.printSeparated(Arrays.asList("aa", 1, null, "b"), ",", 1)
+		.print("]").end().close();
+	}
+
+	public void testPrintSeparated() {
+		separated(wide);
+		assertEquals("wide", "[aa, 1, null, b]", wideBack.getString());
+		separated(six);
+		assertEquals("six", "[aa,\n 1,\n null,\n b]", sixBack.getString());
+		StringBackend spillBack = new StringBackend(6);
+		Layouter<NoExceptions> spill =
+			new Layouter<NoExceptions>(spillBack, 2);
+		spill.setLookaheadSpill(2, null);
+		separated(spill);
+		assertEquals("spill", sixBack.getString(), spillBack.getString());
+		StringBackend offHeapBack = new StringBackend(6);
+		Layouter<NoExceptions> offHeap =
+			new Layouter<NoExceptions>(offHeapBack, 2);
+		offHeap.setOffHeapLookahead(true);
+		separated(offHeap);
+		assertEquals("off heap", sixBack.getString(),
+				offHeapBack.getString());
+	}
+
+	/** Print a text too long for the Printer's line buffer, followed
+	 * by a line break with deep indentation, so that the backend is
+	 * asked for the break and the indentation at once. */
+	private static <Exc extends Exception> void deepIndentation(
+			Layouter<Exc> l, String big) throws Exc {
+		l.beginC(300).print(big).nl().print("b").brk(1,0).print("c");
+		l.end().close();
+	}
+
+	public void testDeepIndentation() throws IOException {
+		char[] c = new char[5000];
+		Arrays.fill(c, 'x');
+		String big = new String(c);
+		c = new char[300];
+		Arrays.fill(c, ' ');
+		String indent = new String(c);
+		String expected = big + "\n" + indent + "b\n" + indent + "c";
+		deepIndentation(wide, big);
+		assertEquals("string", expected, wideBack.getString());
+		StringWriter w = new StringWriter();
+		WriterBackend back = new WriterBackend(w, 80);
+		deepIndentation(new Layouter<IOException>(back, 2), big);
+		assertEquals("writer", expected, w.toString());
+		assertEquals("count", expected.length(), back.count());
+	}
+
+	/** Print lines without text, spaces before line ends and
+	 * indentation at the end of the output, in the given mode. */
+	private static String trailingSpaces(boolean greedy,
+			Layouter.TrailingSpaces mode) {
+		StringBackend back = new StringBackend(80);
+		Layouter<NoExceptions> l = greedy
+			? new GreedyLayouter<NoExceptions>(back, 2)
+			: new Layouter<NoExceptions>(back, 2);
+		l.setTrailingSpaces(mode);
+		l.beginC(2).print("a").nl().nl().print("b").ind(3,6).nl();
+		l.print("c").brk(1,0).mark(null).print("d").nl().end().close();
+		return back.getString();
+	}
+
+	public void testTrailingSpaces() {
+		for (boolean greedy : new boolean[] { false, true }) {
+			assertEquals("keep", "a\n  \n  b     \n  c\n  d\n  ",
+					trailingSpaces(greedy, Layouter.TrailingSpaces.KEEP));
+			assertEquals("lazy", "a\n\n  b     \n  c\n  d\n",
+					trailingSpaces(greedy,
+							Layouter.TrailingSpaces.LAZY_INDENTATION));
+			assertEquals("trim", "a\n\n  b\n  c\n  d\n",
+					trailingSpaces(greedy, Layouter.TrailingSpaces.TRIM));
+		}
+	}
+
+	/** Print indented lines with tabs of width 4, in the given mode. */
+	private static String tabs(boolean greedy, Layouter.TrailingSpaces mode) {
+		StringBackend back = new StringBackend(20);
+		Layouter<NoExceptions> l = greedy
+			? new GreedyLayouter<NoExceptions>(back, 2)
+			: new Layouter<NoExceptions>(back, 2);
+		l.setTrailingSpaces(mode);
+		l.setTabWidth(4);
+		l.beginC(6).print("a").nl().print("b").brk(1,3).print("c");
+		l.beginI(0).print("d").brk(1,0).print("e").end().nl().end().close();
+		return back.getString();
+	}
+
+	public void testTabWidth() {
+		for (boolean greedy : new boolean[] { false, true }) {
+			assertEquals("keep", "a\n\t  b\n\t\t cd e\n\t  ",
+					tabs(greedy, Layouter.TrailingSpaces.KEEP));
+			assertEquals("trim", "a\n\t  b\n\t\t cd e\n",
+					tabs(greedy, Layouter.TrailingSpaces.TRIM));
+		}
+	}
+
+	/** Indent a line past the indentation of its block, with tabs of
+	 * width 4, in the given mode. */
+	private static String tabIndent(boolean greedy,
+			Layouter.TrailingSpaces mode) {
+		StringBackend back = new StringBackend(20);
+		Layouter<NoExceptions> l = greedy
+			? new GreedyLayouter<NoExceptions>(back, 2)
+			: new Layouter<NoExceptions>(back, 2);
+		l.setTrailingSpaces(mode);
+		l.setTabWidth(4);
+		l.beginC(4).print("a").nl().ind(0,9).print("b")
+		.nl().ind(0,2).end().close();
+		return back.getString();
+	}
+
+	/** Spaces added by ind() after the indentation of a new line are
+	 * written with tabs together with that indentation. */
+	public void testTabWidthIndent() {
+		for (boolean greedy : new boolean[] { false, true }) {
+			assertEquals("keep", "a\n\t\t\t b\n\t  ",
+					tabIndent(greedy, Layouter.TrailingSpaces.KEEP));
+			assertEquals("trim", "a\n\t\t\t b\n",
+					tabIndent(greedy, Layouter.TrailingSpaces.TRIM));
+		}
+	}
+
+	/** Print text with ASCII, non-ASCII and unpaired surrogate
+	 * characters, and a text too long for the Printer's buffer. */
+	private static <Exc extends Exception> void utf8(Layouter<Exc> l,
+			String big) throws Exc {
+		l.beginC(3).print("a\u00e4\u20ac").brk(1,0)
+		.print(new StringBuilder("\ud83d\ude00b")).brk(1,0)
+		.print("x\ud800y".toCharArray(), 0, 3).brk(1,0)
+		.print(big).nl().print("z\udc00").end().close();
+	}
+
+	public void testUtf8Stream() throws IOException {
+		char[] c = new char[5000];
+		Arrays.fill(c, '\u00f6');
+		String big = new String(c);
+		utf8(six, big);
+		byte[] expected = sixBack.getString().getBytes(StandardCharsets.UTF_8);
+		for (int size : new int[] { 4, 5, 64, 8192 }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Utf8StreamBackend back = new Utf8StreamBackend(bytes, 6, size);
+			utf8(new Layouter<IOException>(back, 2), big);
+			assertTrue("bytes " + size,
+					Arrays.equals(expected, bytes.toByteArray()));
+			assertEquals("count", sixBack.getString().length(), back.count());
+		}
+	}
+
+	public void testMappedFile() throws IOException {
+		char[] c = new char[5000];
+		Arrays.fill(c, '\u00f6');
+		String big = new String(c);
+		utf8(six, big);
+		byte[] expected = sixBack.getString().getBytes(StandardCharsets.UTF_8);
+		Path file = Files.createTempFile("jpplib", ".txt");
+		try {
+			for (long window : new long[] { 7, 4096, 1 << 20 }) {
+				MappedFileBackend back = new MappedFileBackend(file, 6, window);
+				utf8(new Layouter<IOException>(back, 2), big);
+				assertEquals("length", expected.length, back.length());
+				assertTrue("contents " + window,
+						Arrays.equals(expected, Files.readAllBytes(file)));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	public void testChannel() throws IOException {
+		char[] c = new char[5000];
+		Arrays.fill(c, '\u00f6');
+		String big = new String(c);
+		utf8(six, big);
+		byte[] expected = sixBack.getString().getBytes(StandardCharsets.UTF_8);
+		Path file = Files.createTempFile("jpplib", ".txt");
+		try {
+			ByteBufferPool pool = new ByteBufferPool(64, 4);
+			for (int gather : new int[] { 1, 3, 1000 }) {
+				ChannelBackend back = new ChannelBackend(
+						FileChannel.open(file, StandardOpenOption.WRITE,
+								StandardOpenOption.TRUNCATE_EXISTING),
+						6, pool, gather);
+				utf8(new Layouter<IOException>(back, 2), big);
+				assertTrue("contents " + gather,
+						Arrays.equals(expected, Files.readAllBytes(file)));
+				assertEquals("buffers returned", Math.min(gather, 4),
+						pool.idleCount());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/** A channel which fails to write. */
+	private static final class BrokenChannel implements GatheringByteChannel {
+		boolean open = true;
+
+		public long write(ByteBuffer[] srcs, int offset, int length)
+				throws IOException {
+			throw new IOException("broken");
+		}
+
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			throw new IOException("broken");
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public void close() {
+			open = false;
+		}
+	}
+
+	public void testChannelFailure() throws IOException {
+		char[] c = new char[200];
+		Arrays.fill(c, 'a');
+		ByteBufferPool pool = new ByteBufferPool(64, 4);
+		BrokenChannel channel = new BrokenChannel();
+		ChannelBackend back = new ChannelBackend(channel, 6, pool, 2);
+		try {
+			back.print(new String(c));
+			fail("written");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("buffers returned", 2, pool.idleCount());
+		back.print("abc");
+		assertEquals("buffer taken", 1, pool.idleCount());
+		try {
+			back.close();
+			fail("written");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("all buffers returned", 2, pool.idleCount());
+		assertFalse("closed", channel.isOpen());
+	}
+
+	/** A StringWriter counting the calls that write to it. */
+	private static final class CountingWriter extends StringWriter {
+		int writes = 0;
+
+		@Override
+		public void write(int c) {
+			writes++;
+			super.write(c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			writes++;
+			super.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str) {
+			writes++;
+			super.write(str);
+		}
+
+		@Override
+		public StringWriter append(CharSequence csq) {
+			writes++;
+			return super.append(csq);
+		}
+	}
+
+	/** Print three lines to a WriterBackend with the given policy and
+	 * return the Writer, checking the output before closing. */
+	private CountingWriter flushPolicy(WriterBackend.FlushPolicy policy,
+			int size, String before) throws IOException {
+		CountingWriter w = new CountingWriter();
+		Layouter<IOException> l = new Layouter<IOException>(
+				new WriterBackend(w, 6, policy, size), 2);
+		l.beginC(0).print("aaa").brk(1,0).print("bb").brk(1,0).print("c");
+		l.end();
+		l.finish();
+		assertEquals("before flush " + policy, before, w.toString());
+		l.close();
+		assertEquals("output " + policy, "aaa\nbb\nc", w.toString());
+		return w;
+	}
+
+	public void testFlushPolicy() throws IOException {
+		String all = "aaa\nbb\nc";
+		flushPolicy(WriterBackend.FlushPolicy.PASS_THROUGH, 0, all);
+		assertEquals("one write per line", 3, flushPolicy(
+				WriterBackend.FlushPolicy.LINES, 64, "aaa\nbb\n").writes);
+		assertEquals("written when full", 2, flushPolicy(
+				WriterBackend.FlushPolicy.CHARS, 5, "aaa\n").writes);
+		assertEquals("written on close", 1, flushPolicy(
+				WriterBackend.FlushPolicy.EXPLICIT, 2, "").writes);
+	}
+
+	public void testSegmentedString() throws IOException {
+		char[] c = new char[5000];
+		Arrays.fill(c, 'x');
+		String big = new String(c);
+		utf8(six, big);
+		String expected = sixBack.getString();
+		SegmentedStringBackend.LengthEstimate estimate =
+			new SegmentedStringBackend.LengthEstimate(0);
+		SegmentedStringBackend back =
+			new SegmentedStringBackend(6, estimate);
+		assertEquals("small segments",
+				SegmentedStringBackend.MIN_SEGMENT_SIZE, back.getSegmentSize());
+		utf8(new Layouter<NoExceptions>(back, 2), big);
+		assertEquals("count", expected.length(), back.count());
+		CharSequence cs = back.getCharSequence();
+		assertEquals("length", expected.length(), cs.length());
+		assertEquals("charAt", expected.charAt(1500), cs.charAt(1500));
+		assertEquals("subSequence", expected.substring(1000, 2100),
+				cs.subSequence(1000, 2100).toString());
+		assertEquals("string", expected, back.getString());
+		StringWriter w = new StringWriter();
+		back.writeTo(w);
+		assertEquals("writer", expected, w.toString());
+		assertEquals("learned", expected.length() / 4, estimate.get());
+		back.close();
+		assertEquals("learned once", expected.length() / 4, estimate.get());
+		for (int i = 0; i < 40; i++) {
+			estimate.add(2000000);
+		}
+		assertEquals("large segments",
+				SegmentedStringBackend.MAX_SEGMENT_SIZE,
+				new SegmentedStringBackend(6, estimate).getSegmentSize());
+	}
+}
@@ -0,0 +1,182 @@
+//This file is part of the Java™ Pretty Printer Library (JPPlib)
+//Copyright (c) 2009, Martin Giese
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without 
+//modification, are permitted provided that the following conditions are met:
+// 
+// * Redistributions of source code must retain the above copyright 
+//   notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright 
+//   notice, this list of conditions and the following disclaimer in the 
+//   documentation and/or other materials provided with the distribution.
+// * Neither the name of the author nor the names of his contributors 
+//   may be used to endorse or promote products derived from this 
+//   software without specific prior written permission.
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+//IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+//LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+//CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+//SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//ARISING IN ANY WAY OUT OF THE USE OF THIS  SOFTWARE, EVEN IF ADVISED OF 
+//THE POSSIBILITY OF SUCH DAMAGE.
+
+package de.uka.ilkd.pp.demo.datapp;
+
+import de.uka.ilkd.pp.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** Compares the running time of the two layout engines.  The
+ * same generated data structure is printed repeatedly with
+ * a {@link DataLayouter} and a {@link GreedyLayouter}, into
+ * a {@link WriterBackend} that discards its output, and the
+ * average time per run is reported for each.  Then the
+ * DataLayouter output is encoded as UTF-8, once through a
+ * {@link WriterBackend} over a buffered {@link OutputStreamWriter}
+ * and once through a {@link Utf8StreamBackend}, and the throughput
+ * of each is reported.
+ * 
+ * <p>Usage: <code>LayoutBenchmark [size [runs [width]]]</code>
+ */
+public class LayoutBenchmark {
+
+	/** A Writer that discards everything. */
+	private static final class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/** An OutputStream that discards everything, counting the bytes. */
+	private static final class NullOutputStream extends OutputStream {
+		long bytes = 0;
+
+		@Override
+		public void write(int b) {
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	}
+
+	/** Construct a list of <code>size</code> maps with nested lists. */
+	private static List<Map<String, Object>> createData(int size) {
+		List<Map<String, Object>> l = new ArrayList<Map<String, Object>>();
+		for (int n = 1; n <= size; n++) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("number", n);
+			m.put("name", "item" + n);
+			List<Object> mult = new ArrayList<Object>();
+			for (int i = 1; i <= n % 17; i++) {
+				mult.add(Arrays.asList(n * i, "x" + i));
+			}
+			m.put("multiples", mult);
+			l.add(m);
+		}
+		return l;
+	}
+
+	private static long run(Object data, int width, boolean greedy)
+			throws IOException {
+		WriterBackend back = new WriterBackend(new NullWriter(), width);
+		DataLayouter<IOException> out = greedy
+				? new GreedyLayouter<IOException>(back, 2)
+				: new DataLayouter<IOException>(back, 2);
+		long start = System.nanoTime();
+		out.print(data);
+		out.close();
+		return System.nanoTime() - start;
+	}
+
+	/** Print <code>data</code> as UTF-8 to <code>out</code>, through a
+	 * {@link Utf8StreamBackend} or a {@link WriterBackend}. */
+	private static long runStream(Object data, int width, boolean utf8,
+			NullOutputStream out) throws IOException {
+		Backend<IOException> back = utf8
+				? new Utf8StreamBackend(out, width)
+				: new WriterBackend(new BufferedWriter(
+						new OutputStreamWriter(out, StandardCharsets.UTF_8)),
+						width);
+		DataLayouter<IOException> l = new DataLayouter<IOException>(back, 2);
+		long start = System.nanoTime();
+		l.print(data);
+		l.close();
+		return System.nanoTime() - start;
+	}
+
+	/** Run the benchmark.
+	 * 
+	 * @param args optional number of elements, number of runs and
+	 * line width
+	 * @throws IOException never, the output is discarded
+	 */
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int width = args.length > 2 ? Integer.parseInt(args[2]) : 80;
+		Object data = createData(size);
+
+		// warm up both engines before measuring
+		for (int i = 0; i < 3; i++) {
+			run(data, width, false);
+			run(data, width, true);
+		}
+
+		long layouter = 0;
+		long greedy = 0;
+		for (int i = 0; i < runs; i++) {
+			layouter += run(data, width, false);
+			greedy += run(data, width, true);
+		}
+		System.out.println("elements: " + size + ", runs: " + runs
+				+ ", width: " + width);
+		System.out.println("DataLayouter:   "
+				+ layouter / runs / 1000000 + " ms/run");
+		System.out.println("GreedyLayouter: "
+				+ greedy / runs / 1000000 + " ms/run");
+
+		for (int i = 0; i < 3; i++) {
+			runStream(data, width, false, new NullOutputStream());
+			runStream(data, width, true, new NullOutputStream());
+		}
+		NullOutputStream writerOut = new NullOutputStream();
+		NullOutputStream utf8Out = new NullOutputStream();
+		long writer = 0;
+		long utf8 = 0;
+		for (int i = 0; i < runs; i++) {
+			writer += runStream(data, width, false, writerOut);
+			utf8 += runStream(data, width, true, utf8Out);
+		}
+		System.out.println("WriterBackend:      "
+				+ writerOut.bytes * 1000 / writer + " MB/s");
+		System.out.println("Utf8StreamBackend:  "
+				+ utf8Out.bytes * 1000 / utf8 + " MB/s");
+	}
+}
@@ -93,6 +93,13 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 	 * of characters will open the block, and set this flag.  Any non-character
 	 * event will first check this flag, and close the block if necessary. */
 	private boolean lastSawCharacters = false;
+
+	/** The quoted character data of the current SAX event. */
+	private final StringBuilder quoted = new StringBuilder();
+
+	/** The characters of <code>quoted</code>, from which the words are
+	 * printed without making a String of each. */
+	private char[] text = new char[256];
 	
 	public SimpleXMLPrettyPrinter(PrintStream out) {
 		this.out = out;
@@ -103,9 +110,13 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 	public void characters(char[] ch, int start, int length) 
 	throws SAXException {
 		try {
-			// collect words
-			String quotedText = XMLUtils.quoteCharacterData(ch, start, length).trim();
-			String[] words=quotedText.split("\\s+");
+			quoted.setLength(0);
+			XMLUtils.quoteCharacterData(ch, start, length, quoted);
+			int n = quoted.length();
+			if (text.length < n) {
+				text = new char[Math.max(n, 2 * text.length)];
+			}
+			quoted.getChars(0, n, text, 0);
 			// if last element was already characters, continue with a
 			// separating brk, otherwise, start new inconsistent block.
 			if (lastSawCharacters) {
@@ -114,14 +125,20 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 				pp.beginIInd(0);
 			}
 			// output words separated by blanks
+			int i = skipSpace(0, n);
 			boolean brk = false;
-			for(String word:words) {
+			do {
+				int word = i;
+				while (i < n && !isSpace(text[i])) {
+					i++;
+				}
 				if (brk) {
 					pp.brk(1,0);
 				}
-				pp.print(word);
+				pp.print(text, word, i - word);
 				brk = true;
-			}
+				i = skipSpace(i, n);
+			} while (i < n);
 			lastSawCharacters = true;
 		} catch (IOException e) {
 			throw new SAXException(e);
@@ -129,6 +146,22 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 	}
 	
 	
+	/** Return the index of the first non-space character in
+	 * <code>text</code> from <code>i</code>, or <code>n</code>. */
+	private int skipSpace(int i, int n) {
+		while (i < n && isSpace(text[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	/** The characters that separate words, as <code>\\s</code> in
+	 * a regular expression. */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+			|| c == '\f' || c == '\r';
+	}
+
 	/** If a characters-block is still open, close it. */
 	private void wrapUpCharacters() 
 	throws IOException {
@@ -149,7 +182,7 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 			if (insertBreak) {
 				pp.brk(0,0);
 			}
-			pp.beginC(INDENTATION).print("<"+localName);
+			pp.beginC(INDENTATION).printAll("<", localName);
 			printAttributes(atts);
 			pp.print(">");
 			insertBreak = true;
@@ -184,7 +217,7 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 			if (insertBreak) {
 				pp.brk(0,-INDENTATION);
 			}
-			pp.print("</"+localName+">").end();
+			pp.printAll("</", localName, ">").end();
 			insertBreak = true;
 		} catch (IOException e) {
 			throw new SAXException(e);
@@ -195,7 +228,7 @@ public class SimpleXMLPrettyPrinter extends DefaultHandler {
 	public void processingInstruction(String target, String data) 
 	throws SAXException {
 		try {
-			pp.print("<?"+target+" "+data+"?>").nl();
+			pp.printAll("<?", target, " ", data, "?>").nl();
 		} catch (IOException e) {
 			throw new SAXException(e);
 		}
@@ -28,7 +28,7 @@
 
 package de.uka.ilkd.pp.demo.xmlpp;
 
-import de.uka.ilkd.pp.Backend;
+import de.uka.ilkd.pp.LineRangeBackend;
 import de.uka.ilkd.pp.NoExceptions;
 
 import javax.swing.text.*;
@@ -40,13 +40,19 @@ import javax.swing.text.*;
  * characters sent to {@link #print(String)} will be printed using these attributes.
  * Initially, an empty set of attributes is used.
  * 
+ * <p>Lines replaced by a {@link de.uka.ilkd.pp.IncrementalRenderer} are
+ * removed from the document, and the following output is inserted in
+ * their place.
+ * 
  * @author Martin Giese
  *
  */
-public class StyledDocumentBackend implements Backend<NoExceptions> {
+public class StyledDocumentBackend implements LineRangeBackend<NoExceptions> {
 	protected StyledDocument out;
     protected int lineWidth;
     protected AttributeSet currentAttributes = SimpleAttributeSet.EMPTY;
+    /** The offset output is inserted at, or -1 to append */
+    protected int insertAt = -1;
     
     /** Create a new StyledDocumentBackend.  This will append all output to
      * the given StyledDocument <code>sb</code>.    */
@@ -65,7 +71,12 @@ public class StyledDocumentBackend implements Backend<NoExceptions> {
      * contains no newlines. */
     public void print(String s) {
     	try {
-    		out.insertString(out.getLength(),s,currentAttributes);
+    		if (insertAt < 0) {
+    			out.insertString(out.getLength(),s,currentAttributes);
+    		} else {
+    			out.insertString(insertAt,s,currentAttributes);
+    			insertAt += s.length();
+    		}
     	} catch (BadLocationException e) {
     		System.err.println(e);
     		System.exit(1);
@@ -77,6 +88,25 @@ public class StyledDocumentBackend implements Backend<NoExceptions> {
     	print("\n");
     }
 
+    /** Remove the lines <code>from</code> to <code>to-1</code> from the
+     * document.  Further output is inserted in their place, using the
+     * attributes of the text before them. */
+    public void replaceLines(int from, int to) {
+    	Element root = out.getDefaultRootElement();
+    	int start = root.getElement(from).getStartOffset();
+    	int end = root.getElement(to - 1).getEndOffset() - 1;
+    	try {
+    		out.remove(start, end - start);
+    	} catch (BadLocationException e) {
+    		System.err.println(e);
+    		System.exit(1);
+    	}
+    	insertAt = start;
+    	if (start > 0) {
+    		currentAttributes = out.getCharacterElement(start - 1).getAttributes();
+    	}
+    }
+
     /** Closes this backend */
     public void close() {
     	return;
@@ -164,7 +164,7 @@ public class StyledXMLPrettyPrinter extends DefaultHandler {
 			pp.brk(0,0);
 		}
 		pp.mark(ATTR_BLUE);
-		pp.beginC(INDENTATION).print("<"+localName);
+		pp.beginC(INDENTATION).printAll("<", localName);
 		printAttributes(atts);
 		pp.print(">");
 		pp.mark(ATTR_EMPTY);
@@ -197,7 +197,7 @@ public class StyledXMLPrettyPrinter extends DefaultHandler {
 			pp.brk(0,-INDENTATION);
 		}
 		pp.mark(ATTR_BLUE);
-		pp.print("</"+localName+">").mark(ATTR_EMPTY).end();
+		pp.printAll("</", localName, ">").mark(ATTR_EMPTY).end();
 		insertBreak = true;
 	}
 
@@ -208,7 +208,7 @@ public class StyledXMLPrettyPrinter extends DefaultHandler {
 			pp.brk(0,0);
 		}
 		pp.mark(ATTR_GRAY);	
-		pp.print("<?"+target+" "+data+"?>").mark(ATTR_EMPTY).nl();
+		pp.printAll("<?", target, " ", data, "?>").mark(ATTR_EMPTY).nl();
 	}
 	
 	public void process(String urlString) 
@@ -34,6 +34,14 @@ public class XMLUtils {
 	/** Replace critical characters by XML entities. */
 	static String quoteCharacterData(char[] ch, int start, int length) {
 		StringBuilder sb = new StringBuilder();
+		quoteCharacterData(ch, start, length, sb);
+		return sb.toString();
+	}
+
+	/** Replace critical characters by XML entities, appending the
+	 * result to <code>sb</code>. */
+	static void quoteCharacterData(char[] ch, int start, int length,
+			StringBuilder sb) {
 		for(int i=start;i<start+length;i++) {
 			char c;
 			switch (c=ch[i]) {
@@ -51,7 +59,6 @@ public class XMLUtils {
 			break;
 			}
 		}
-		return sb.toString();
 	}
 
 	/** Replace critical characters by XML entities. */